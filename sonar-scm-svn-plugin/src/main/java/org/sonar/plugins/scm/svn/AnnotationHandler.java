@@ -21,15 +21,44 @@ package org.sonar.plugins.scm.svn;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
 import org.sonar.api.batch.scm.BlameLine;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.wc.ISVNAnnotateHandler;
 
+/**
+ * Collects the blame of a file as a table of the distinct revisions, built once per revision, plus the index
+ * of the revision of each line. Lines of the same revision share the same {@link BlameLine} instance.
+ */
 public class AnnotationHandler implements ISVNAnnotateHandler {
 
-  private List<BlameLine> lines = new ArrayList<>();
+  private final BlameLine invalidRevisionLine;
+  private final List<BlameLine> table = new ArrayList<>();
+  private final Map<Long, Integer> tableIndexes = new HashMap<>();
+  private long lastRevision;
+  private int lastIndex = -1;
+
+  private int size;
+  private int[] lines = new int[64];
+  private long[] revisions = new long[64];
+  private int[] lineHashes = new int[64];
+
+  public AnnotationHandler() {
+    this(null);
+  }
+
+  /**
+   * @param invalidRevisionLine blame of the lines reported without a valid revision, because they are older than
+   *                            the start revision of the annotation
+   */
+  AnnotationHandler(@Nullable BlameLine invalidRevisionLine) {
+    this.invalidRevisionLine = invalidRevisionLine;
+  }
 
   @Override
   public void handleEOF() {
@@ -44,7 +73,54 @@ public class AnnotationHandler implements ISVNAnnotateHandler {
   @Override
   public void handleLine(Date date, long revision, String author, String line, Date mergedDate,
     long mergedRevision, String mergedAuthor, String mergedPath, int lineNumber) throws SVNException {
-    lines.add(new BlameLine().date(mergedDate).revision(Long.toString(mergedRevision)).author(mergedAuthor));
+    addLine(revision, mergedDate, mergedRevision, mergedAuthor, hash(line));
+  }
+
+  /**
+   * Adds the next line, given the hash of its text as computed by {@link #hash(String)}
+   */
+  void addLine(long revision, @Nullable Date mergedDate, long mergedRevision, @Nullable String mergedAuthor, int lineHash) {
+    if (size == lines.length) {
+      lines = Arrays.copyOf(lines, size * 2);
+      revisions = Arrays.copyOf(revisions, size * 2);
+      lineHashes = Arrays.copyOf(lineHashes, size * 2);
+    }
+    lines[size] = tableIndex(mergedDate, mergedRevision, mergedAuthor);
+    revisions[size] = revision;
+    lineHashes[size] = lineHash;
+    size++;
+  }
+
+  /**
+   * Consecutive lines often come from the same revision, which is checked before looking up the table.
+   */
+  private int tableIndex(Date date, long revision, String author) {
+    if (lastIndex < 0 || revision != lastRevision) {
+      lastRevision = revision;
+      lastIndex = tableIndexes.computeIfAbsent(revision, r -> {
+        if (r < 0 && invalidRevisionLine != null) {
+          table.add(invalidRevisionLine);
+        } else {
+          table.add(new BlameLine().date(date).revision(Long.toString(r)).author(author));
+        }
+        return table.size() - 1;
+      });
+    }
+    return lastIndex;
+  }
+
+  /**
+   * Same as the hash code of the line without any whitespace, to be consistent with the diff options used by blame.
+   */
+  static int hash(String line) {
+    int h = 0;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (!Character.isWhitespace(c)) {
+        h = 31 * h + c;
+      }
+    }
+    return h;
   }
 
   @Override
@@ -57,7 +133,22 @@ public class AnnotationHandler implements ISVNAnnotateHandler {
   }
 
   public List<BlameLine> getLines() {
-    return lines;
+    return getBlame().toList();
+  }
+
+  CompactBlame getBlame() {
+    return new CompactBlame(table.toArray(new BlameLine[0]), Arrays.copyOf(lines, size));
+  }
+
+  /**
+   * Revisions of the lines, ignoring merge history
+   */
+  long[] getRevisions() {
+    return Arrays.copyOf(revisions, size);
+  }
+
+  int[] getLineHashes() {
+    return Arrays.copyOf(lineHashes, size);
   }
 
 }
@@ -0,0 +1,373 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.batch.scm.BlameLine;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Blame results persisted between analyses, keyed by repository UUID, repository-relative path and blame start revision.
+ * An entry is only served if the last changed revision and the checksum of the file did not change.
+ * Otherwise, an entry of an older revision of the file can still be extended, see {@link #previous(String, String, long, long)}.
+ * Entries are evicted in least-recently-used order once the estimated size of the cache exceeds its limit.
+ * <p>
+ * The cache file is shared by the analyses of all the projects. It is only written when entries were added, under a file
+ * lock, and merged with the entries saved by other analyses since it was loaded.
+ */
+class BlameCache {
+
+  private static final Logger LOG = Loggers.get(BlameCache.class);
+
+  private static final int MAGIC = 0x53564e42;
+  private static final int VERSION = 2;
+  private static final long NO_DATE = Long.MIN_VALUE;
+  /**
+   * File locks are held by the whole JVM, and cannot be taken twice by it
+   */
+  private static final Object SAVE_LOCK = new Object();
+
+  private final Path file;
+  private final long maxSize;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+  private final AtomicInteger extended = new AtomicInteger();
+  private final Set<String> usedKeys = new LinkedHashSet<>();
+  private final Set<String> addedKeys = new LinkedHashSet<>();
+  private long size = 0;
+
+  BlameCache(Path file, long maxSize) {
+    this.file = file;
+    this.maxSize = maxSize;
+  }
+
+  static BlameCache load(Path file, long maxSize) {
+    BlameCache cache = new BlameCache(file, maxSize);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      cache.read(in);
+    } catch (NoSuchFileException e) {
+      LOG.debug("No SVN blame cache found at {}", file);
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Ignoring invalid SVN blame cache " + file, e);
+      cache.clear();
+    }
+    return cache;
+  }
+
+  @CheckForNull
+  synchronized CompactBlame get(String repositoryUuid, String path, long startRevision, long revision, String checksum) {
+    Entry entry = entries.get(key(repositoryUuid, path, startRevision));
+    if (entry != null && entry.revision == revision && entry.checksum.equals(checksum)) {
+      hits.incrementAndGet();
+      usedKeys.add(key(repositoryUuid, path, startRevision));
+      return entry.blame;
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Revision of the cached blame of the file, -1 if none, without counting a hit or a miss
+   */
+  synchronized long cachedRevision(String repositoryUuid, String path, long startRevision) {
+    Entry entry = entries.get(key(repositoryUuid, path, startRevision));
+    return entry != null ? entry.revision : -1;
+  }
+
+  /**
+   * Entry of an older revision of the file, if any
+   */
+  @CheckForNull
+  synchronized Entry previous(String repositoryUuid, String path, long startRevision, long revision) {
+    Entry entry = entries.get(key(repositoryUuid, path, startRevision));
+    if (entry != null && entry.revision < revision) {
+      extended.incrementAndGet();
+      return entry;
+    }
+    return null;
+  }
+
+  /**
+   * @param lineHashes hashes of the content of the lines, see {@link AnnotationHandler#hash(String)}
+   */
+  synchronized void put(String repositoryUuid, String path, long startRevision, long revision, String checksum, CompactBlame blame,
+    int[] lineHashes) {
+    String key = key(repositoryUuid, path, startRevision);
+    add(key, new Entry(revision, checksum, blame, lineHashes));
+    addedKeys.remove(key);
+    addedKeys.add(key);
+    evict();
+  }
+
+  int hits() {
+    return hits.get();
+  }
+
+  int misses() {
+    return misses.get();
+  }
+
+  /**
+   * Number of misses for which an older entry was found
+   */
+  int extended() {
+    return extended.get();
+  }
+
+  synchronized int entries() {
+    return entries.size();
+  }
+
+  /**
+   * Adds the entries of this analysis to the ones currently saved, which other analyses may have changed since the cache was
+   * loaded. Nothing is written if no entry was added.
+   */
+  synchronized void save() throws IOException {
+    if (addedKeys.isEmpty()) {
+      return;
+    }
+    Files.createDirectories(file.getParent());
+    synchronized (SAVE_LOCK) {
+      try (FileChannel lockChannel = FileChannel.open(file.resolveSibling(file.getFileName() + ".lock"), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+        FileLock lock = lockChannel.lock()) {
+        BlameCache saved = load(file, maxSize);
+        saved.merge(this);
+        saved.write(file);
+      }
+    }
+    addedKeys.clear();
+  }
+
+  private void merge(BlameCache other) {
+    for (String key : other.usedKeys) {
+      // refreshes the access order
+      entries.get(key);
+    }
+    for (String key : other.addedKeys) {
+      Entry entry = other.entries.get(key);
+      if (entry != null) {
+        add(key, entry);
+      }
+    }
+    evict();
+  }
+
+  private void write(Path target) throws IOException {
+    Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        write(out);
+      }
+      Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private void add(String key, Entry entry) {
+    Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      size -= previous.size;
+    }
+    size += entry.size;
+  }
+
+  private void evict() {
+    Iterator<Entry> it = entries.values().iterator();
+    while (size > maxSize && it.hasNext()) {
+      size -= it.next().size;
+      it.remove();
+    }
+  }
+
+  private void clear() {
+    entries.clear();
+    size = 0;
+  }
+
+  /**
+   * Blames starting at different revisions differ, and are kept apart. Keys of blames of the whole history
+   * have no start revision.
+   */
+  private static String key(String repositoryUuid, String path, long startRevision) {
+    String key = repositoryUuid + ':' + path;
+    return startRevision > 1 ? (key + '@' + startRevision) : key;
+  }
+
+  private void write(DataOutput out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(entries.size());
+    // least recently used first, so that the access order is restored on load
+    for (Map.Entry<String, Entry> e : entries.entrySet()) {
+      Entry entry = e.getValue();
+      out.writeUTF(e.getKey());
+      out.writeLong(entry.revision);
+      out.writeUTF(entry.checksum);
+      BlameLine[] table = entry.blame.table();
+      writeVarInt(out, table.length);
+      for (BlameLine line : table) {
+        out.writeUTF(line.revision());
+        Date date = line.date();
+        out.writeLong(date != null ? date.getTime() : NO_DATE);
+        writeNullableString(out, line.author());
+      }
+      int[] lines = entry.blame.lines();
+      writeVarInt(out, lines.length);
+      for (int index : lines) {
+        writeVarInt(out, index);
+      }
+      for (int hash : entry.lineHashes) {
+        out.writeInt(hash);
+      }
+    }
+  }
+
+  private void read(DataInput in) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Unsupported format");
+    }
+    Map<String, String> strings = new HashMap<>();
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      String key = in.readUTF();
+      long revision = in.readLong();
+      String checksum = in.readUTF();
+      BlameLine[] table = new BlameLine[readVarInt(in)];
+      for (int j = 0; j < table.length; j++) {
+        String lineRevision = strings.computeIfAbsent(in.readUTF(), s -> s);
+        long date = in.readLong();
+        String author = readNullableString(in);
+        table[j] = new BlameLine()
+          .revision(lineRevision)
+          .date(date != NO_DATE ? new Date(date) : null)
+          .author(author != null ? strings.computeIfAbsent(author, s -> s) : null);
+      }
+      int[] lines = new int[readVarInt(in)];
+      for (int j = 0; j < lines.length; j++) {
+        lines[j] = readVarInt(in);
+        if (lines[j] >= table.length) {
+          throw new IOException("Invalid line entry");
+        }
+      }
+      int[] lineHashes = new int[lines.length];
+      for (int j = 0; j < lines.length; j++) {
+        lineHashes[j] = in.readInt();
+      }
+      add(key, new Entry(revision, checksum, new CompactBlame(table, lines), lineHashes));
+    }
+    evict();
+  }
+
+  private static void writeNullableString(DataOutput out, @Nullable String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      out.writeUTF(s);
+    }
+  }
+
+  @CheckForNull
+  private static String readNullableString(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeVarInt(DataOutput out, int value) throws IOException {
+    int v = value;
+    while ((v & ~0x7F) != 0) {
+      out.writeByte((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    out.writeByte(v);
+  }
+
+  private static int readVarInt(DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  static class Entry {
+    private final long revision;
+    private final String checksum;
+    private final CompactBlame blame;
+    private final int[] lineHashes;
+    private final long size;
+
+    Entry(long revision, String checksum, CompactBlame blame, int[] lineHashes) {
+      this.revision = revision;
+      this.checksum = checksum;
+      this.blame = blame;
+      this.lineHashes = lineHashes;
+      this.size = estimateSize(checksum, blame);
+    }
+
+    long revision() {
+      return revision;
+    }
+
+    CompactBlame blame() {
+      return blame;
+    }
+
+    int[] lineHashes() {
+      return lineHashes;
+    }
+
+    private static long estimateSize(String checksum, CompactBlame blame) {
+      long estimate = 64L + checksum.length();
+      for (BlameLine line : blame.table()) {
+        estimate += 24L + line.revision().length() + (line.author() != null ? line.author().length() : 0);
+      }
+      return estimate + 8L * blame.size();
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.util.function.LongSupplier;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Limits the number of files annotated at the same time, between 1 and the number of blame threads, which is
+ * the initial limit. The limit grows by one while the latency of the server stays flat, and is halved when the server fails
+ * or its latency rises (additive increase, multiplicative decrease). The latency is the time per file revision,
+ * so that it does not depend on the history of the files, and is compared between recent and older requests.
+ */
+class BlameConcurrencyLimiter {
+
+  private static final Logger LOG = Loggers.get(BlameConcurrencyLimiter.class);
+
+  /**
+   * Recent latency above this factor of the usual one means that the server is overloaded
+   */
+  private static final double LATENCY_TOLERANCE = 2.0;
+  private static final double RECENT_WEIGHT = 0.5;
+  private static final double USUAL_WEIGHT = 0.1;
+
+  private final int maxLimit;
+  private final LongSupplier clock;
+  private int limit;
+  private int inFlight;
+  private double recentLatency = -1;
+  private double usualLatency = -1;
+  private long lastDecrease = Long.MIN_VALUE;
+
+  BlameConcurrencyLimiter(int maxLimit) {
+    this(maxLimit, System::nanoTime);
+  }
+
+  BlameConcurrencyLimiter(int maxLimit, LongSupplier clock) {
+    this.maxLimit = Math.max(1, maxLimit);
+    this.clock = clock;
+    this.limit = this.maxLimit;
+  }
+
+  /**
+   * Waits until a file can be annotated
+   *
+   * @return start time of the request, to give back on completion
+   */
+  synchronized long acquire() {
+    while (inFlight >= limit) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting to execute blame", e);
+      }
+    }
+    inFlight++;
+    return clock.getAsLong();
+  }
+
+  synchronized void succeeded(long start, int fileRevisions) {
+    boolean saturated = inFlight >= limit;
+    inFlight--;
+    double latency = (double) (clock.getAsLong() - start) / Math.max(1, fileRevisions);
+    if (usualLatency < 0) {
+      recentLatency = latency;
+      usualLatency = latency;
+    } else {
+      recentLatency += RECENT_WEIGHT * (latency - recentLatency);
+      usualLatency += USUAL_WEIGHT * (latency - usualLatency);
+    }
+    if (recentLatency > LATENCY_TOLERANCE * usualLatency) {
+      decrease(start, "rising latency");
+    } else if (saturated && limit < maxLimit) {
+      limit++;
+      LOG.debug("SVN blame concurrency limit increased to {}", limit);
+    }
+    notifyAll();
+  }
+
+  /**
+   * @param overloaded whether the failure means that the server is overloaded
+   */
+  synchronized void failed(long start, boolean overloaded) {
+    inFlight--;
+    if (overloaded) {
+      decrease(start, "server error");
+    }
+    notifyAll();
+  }
+
+  synchronized int limit() {
+    return limit;
+  }
+
+  /**
+   * Requests started before the last decrease do not decrease the limit again, they were already sent to the overloaded server
+   */
+  private void decrease(long start, String reason) {
+    if (start <= lastDecrease) {
+      return;
+    }
+    lastDecrease = clock.getAsLong();
+    int previous = limit;
+    limit = Math.max(1, limit / 2);
+    if (limit != previous) {
+      LOG.debug("SVN blame concurrency limit decreased to {} after {}", limit, reason);
+    }
+  }
+}
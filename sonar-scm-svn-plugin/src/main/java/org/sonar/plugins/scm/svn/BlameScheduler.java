@@ -0,0 +1,114 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Orders the files to blame in parallel from the costliest to the cheapest, so that a big file is not the last one
+ * to be picked up by a worker. The cost of a file is estimated as its number of lines times the span of revisions
+ * to annotate, from the status of the file, without asking the server. Files served by the blame cache cost nothing.
+ * Estimated costs and actual durations are logged in debug, to tune the estimation.
+ */
+class BlameScheduler {
+
+  private static final Logger LOG = Loggers.get(BlameScheduler.class);
+
+  private final List<InputFile> files;
+  private final Map<InputFile, Long> costs;
+  private final AtomicLong totalCost = new AtomicLong();
+  private final AtomicLong totalMillis = new AtomicLong();
+
+  BlameScheduler(List<InputFile> files, Map<InputFile, Long> costs) {
+    this.files = files;
+    this.costs = costs;
+  }
+
+  static BlameScheduler estimate(Collection<InputFile> files, StatusSnapshot snapshot, @Nullable BlameCache cache, long startRevision) {
+    Map<InputFile, Long> costs = new HashMap<>();
+    for (InputFile file : files) {
+      costs.put(file, cost(file, snapshot.get(file.file()), cache, startRevision));
+    }
+    List<InputFile> ordered = new ArrayList<>(files);
+    ordered.sort(Comparator.comparing(costs::get).reversed());
+    return new BlameScheduler(ordered, costs);
+  }
+
+  /**
+   * Files from the costliest to the cheapest
+   */
+  List<InputFile> files() {
+    return files;
+  }
+
+  long cost(InputFile file) {
+    return costs.getOrDefault(file, 0L);
+  }
+
+  void done(InputFile file, long millis) {
+    long cost = cost(file);
+    totalCost.addAndGet(cost);
+    totalMillis.addAndGet(millis);
+    LOG.debug("Blamed {} in {} ms, estimated cost {}", file, millis, cost);
+  }
+
+  void logSummary() {
+    long cost = totalCost.get();
+    if (cost > 0) {
+      LOG.debug("Blamed files with an estimated cost of {} in {} ms, {} ms per million", cost, totalMillis.get(),
+        totalMillis.get() * 1_000_000 / cost);
+    }
+  }
+
+  /**
+   * A file changes at most once per revision, so the revisions to annotate are bounded by the span from the start
+   * revision to the last change of the file, plus the one before the start revision. Files last changed before the start
+   * revision are annotated from a single revision, and cached blames are extended from their revision.
+   */
+  private static long cost(InputFile file, @Nullable StatusSnapshot.FileStatus status, @Nullable BlameCache cache, long startRevision) {
+    long revisions = 1;
+    if (status != null) {
+      long from = startRevision;
+      if (cache != null && status.repositoryUuid() != null && status.repositoryPath() != null) {
+        long cached = cache.cachedRevision(status.repositoryUuid(), status.repositoryPath(), startRevision);
+        if (cached == status.committedRevision()) {
+          return 0;
+        }
+        if (cached >= 0 && cached < status.committedRevision()) {
+          from = cached + 1;
+        }
+      }
+      if (status.committedRevision() >= from) {
+        revisions = status.committedRevision() - from + 1 + (from > 1 ? 1 : 0);
+      }
+    }
+    return Math.max(1, file.lines()) * revisions;
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.tmatesoft.svn.core.SVNAnnotationGenerator;
+import org.tmatesoft.svn.core.SVNCancelException;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.wc.SVNFileUtil;
+import org.tmatesoft.svn.core.io.ISVNConnectionListener;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+import org.tmatesoft.svn.core.wc.ISVNEventHandler;
+import org.tmatesoft.svn.core.wc.SVNDiffOptions;
+import org.tmatesoft.svn.core.wc.SVNEvent;
+import org.tmatesoft.svn.core.wc.SVNLogClient;
+import org.tmatesoft.svn.core.wc.SVNRevision;
+
+/**
+ * Annotates the files of one blame worker. The repository session is opened for the first file and only reparented
+ * to the following ones, so that connection and authentication happen once per worker instead of once per file.
+ * Files without a known repository location are annotated through {@link SVNLogClient}.
+ * <p>
+ * File revisions are annotated either by {@link SVNAnnotationGenerator}, like SVNKit does, or in memory
+ * by {@link DeltaAnnotator}.
+ */
+class BlameSession {
+
+  private static final Logger LOG = Loggers.get(BlameSession.class);
+
+  private final SVNClientManager clientManager;
+  private final boolean inMemory;
+  private final long fileTimeoutMillis;
+  private final Deadline deadline = new Deadline();
+  private final ConnectionCounter connectionCounter = new ConnectionCounter();
+  private SVNRepository repository;
+  private String repositoryRoot;
+  private Path tmpDir;
+  private int files;
+  private int sessions;
+  private int lastFileRevisions;
+
+  BlameSession(SVNClientManager clientManager) {
+    this(clientManager, false);
+  }
+
+  BlameSession(SVNClientManager clientManager, boolean inMemory) {
+    this(clientManager, inMemory, 0);
+  }
+
+  /**
+   * @param fileTimeoutMillis time allowed to annotate a file, 0 for no limit
+   */
+  BlameSession(SVNClientManager clientManager, boolean inMemory, long fileTimeoutMillis) {
+    this.clientManager = clientManager;
+    this.inMemory = inMemory;
+    this.fileTimeoutMillis = fileTimeoutMillis;
+  }
+
+  SVNClientManager clientManager() {
+    return clientManager;
+  }
+
+  /**
+   * Lines older than the start revision are reported by SVN with an invalid revision, they are attributed
+   * to the start revision if it has a blame line
+   *
+   * @throws SVNCancelException if the annotation exceeds the time allowed to annotate a file
+   */
+  AnnotationHandler annotate(File file, StatusSnapshot.FileStatus status, BlameStartRevision startRevision) throws SVNException {
+    deadline.reset(fileTimeoutMillis);
+    lastFileRevisions = 1;
+    try {
+      return doAnnotate(file, status, startRevision);
+    } catch (SVNException e) {
+      if (repository != null) {
+        // the server may still be sending file revisions, or the connection may be lost
+        repository.closeSession();
+        repository = null;
+        repositoryRoot = null;
+      }
+      throw e;
+    }
+  }
+
+  private AnnotationHandler doAnnotate(File file, StatusSnapshot.FileStatus status, BlameStartRevision startRevision) throws SVNException {
+    AnnotationHandler handler = new AnnotationHandler(startRevision.line());
+    String root = status.repositoryRoot();
+    if (root == null || status.repositoryPath() == null || status.revision() < 0) {
+      SVNLogClient logClient = clientManager.getLogClient();
+      logClient.setDiffOptions(diffOptions());
+      logClient.setEventHandler(deadline);
+      logClient.doAnnotate(file, SVNRevision.UNDEFINED, SVNRevision.create(startRevision.revision()), SVNRevision.BASE, true, true, handler, null);
+      return handler;
+    }
+
+    long start = System.nanoTime();
+    int connections = connectionCounter.opened;
+    SVNRepository session = session(root, SVNURL.parseURIEncoded(root).appendPath(status.repositoryPath(), false));
+    long startRev = startRevision.revision();
+    long endRev = status.revision();
+    int revisions = inMemory ? annotateInMemory(session, startRev, endRev, handler) : annotate(session, file, startRev, endRev, handler);
+    files++;
+    lastFileRevisions = revisions;
+    LOG.debug("Annotated {} from {} file revisions, {} new connection(s), in {} ms", file, revisions, connectionCounter.opened - connections,
+      TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return handler;
+  }
+
+  /**
+   * Same as the annotation done by SVNLogClient, see SvnRemoteAnnotate
+   */
+  private int annotate(SVNRepository session, File file, long startRev, long endRev, AnnotationHandler handler) throws SVNException {
+    SVNAnnotationGenerator generator = new SVNAnnotationGenerator(file.getAbsolutePath(), tmpDir(), startRev, true, true, diffOptions(), null,
+      handler, deadline);
+    generator.setEndRevision(endRev);
+    try {
+      int revisions = session.getFileRevisions("", startRev > 0 ? (startRev - 1) : startRev, endRev, true, generator);
+      if (!generator.isLastRevisionReported()) {
+        generator.reportAnnotations(handler, null);
+      }
+      return revisions;
+    } finally {
+      generator.dispose();
+    }
+  }
+
+  private int annotateInMemory(SVNRepository session, long startRev, long endRev, AnnotationHandler handler) throws SVNException {
+    DeltaAnnotator annotator = new DeltaAnnotator(startRev, endRev, deadline);
+    int revisions = session.getFileRevisions("", startRev > 0 ? (startRev - 1) : startRev, endRev, true, annotator);
+    annotator.report(handler);
+    return revisions;
+  }
+
+  /**
+   * Number of file revisions received by the last annotation, 1 when they are not known
+   */
+  int lastFileRevisions() {
+    return Math.max(1, lastFileRevisions);
+  }
+
+  /**
+   * Number of repository sessions opened so far
+   */
+  int sessions() {
+    return sessions;
+  }
+
+  /**
+   * Closes the repository session and disposes the client manager
+   */
+  void close() {
+    if (repository != null) {
+      LOG.debug("{} files annotated using {} session(s) and {} connection(s)", files, sessions, connectionCounter.opened);
+      repository.closeSession();
+    }
+    if (tmpDir != null) {
+      SVNFileUtil.deleteAll(tmpDir.toFile(), true);
+    }
+    try {
+      clientManager.dispose();
+    } catch (Exception e) {
+      LOG.warn("Unable to dispose SVN ClientManager", e);
+    }
+  }
+
+  private SVNRepository session(String root, SVNURL url) throws SVNException {
+    if (repository != null && root.equals(repositoryRoot)) {
+      repository.setLocation(url, false);
+      return repository;
+    }
+    if (repository != null) {
+      // file from another repository, through an external
+      repository.closeSession();
+    }
+    repository = clientManager.createRepository(url, false);
+    repository.addConnectionListener(connectionCounter);
+    sessions++;
+    repositoryRoot = root;
+    return repository;
+  }
+
+  private File tmpDir() {
+    if (tmpDir == null) {
+      try {
+        tmpDir = Files.createTempDirectory("svn-blame");
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to create temporary directory for blame", e);
+      }
+    }
+    return tmpDir.toFile();
+  }
+
+  private static SVNDiffOptions diffOptions() {
+    return new SVNDiffOptions(true, true, true);
+  }
+
+  /**
+   * Cancels the annotation of a file once its time limit is exceeded. SVNKit checks it for each file revision.
+   */
+  private static class Deadline implements ISVNEventHandler {
+    private long timeoutMillis;
+    private long deadline;
+
+    void reset(long timeoutMillis) {
+      this.timeoutMillis = timeoutMillis;
+      this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    @Override
+    public void handleEvent(SVNEvent event, double progress) {
+      // no progress reporting
+    }
+
+    @Override
+    public void checkCancelled() throws SVNCancelException {
+      if (timeoutMillis > 0 && System.nanoTime() - deadline > 0) {
+        throw new SVNCancelException(SVNErrorMessage.create(SVNErrorCode.CANCELLED, "Blame exceeded its time limit of {0} ms", timeoutMillis));
+      }
+    }
+  }
+
+  private static class ConnectionCounter implements ISVNConnectionListener {
+    private int opened;
+
+    @Override
+    public void connectionOpened(SVNRepository repository) {
+      opened++;
+    }
+
+    @Override
+    public void connectionClosed(SVNRepository repository) {
+      // only openings are counted
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.File;
+import java.util.Date;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.batch.scm.BlameLine;
+import org.sonar.api.utils.DateUtils;
+import org.sonar.api.utils.MessageException;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNPropertyValue;
+import org.tmatesoft.svn.core.SVNRevisionProperty;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.util.SVNDate;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+
+/**
+ * Oldest revision considered by blame. Lines last changed before it are attributed to it, which caps
+ * the part of the history to annotate.
+ */
+class BlameStartRevision {
+
+  private static final Logger LOG = Loggers.get(BlameStartRevision.class);
+
+  static final String FORK_PREFIX = "fork:";
+
+  private static final BlameStartRevision WHOLE_HISTORY = new BlameStartRevision(1, null);
+
+  private final long revision;
+  private final BlameLine line;
+
+  BlameStartRevision(long revision, @Nullable BlameLine line) {
+    this.revision = revision;
+    this.line = line;
+  }
+
+  static BlameStartRevision wholeHistory() {
+    return WHOLE_HISTORY;
+  }
+
+  /**
+   * @param value a revision number, a date (yyyy-MM-dd or yyyy-MM-dd'T'HH:mm:ssZ), or {@code fork:<branch>} for the revision
+   *              from which the working copy was copied from the given branch (for example {@code fork:trunk})
+   */
+  static BlameStartRevision resolve(@Nullable String value, SVNClientManager clientManager, File baseDir, FindFork findFork) throws SVNException {
+    if (value == null || value.trim().isEmpty()) {
+      return WHOLE_HISTORY;
+    }
+    String trimmed = value.trim();
+    SVNRepository repository = clientManager.createRepository(repositoryRoot(clientManager, baseDir), true);
+    try {
+      long revision;
+      if (trimmed.startsWith(FORK_PREFIX)) {
+        String branch = trimmed.substring(FORK_PREFIX.length());
+        ForkPoint forkPoint = findFork.find(baseDir.toPath(), branch);
+        if (forkPoint == null) {
+          LOG.warn("No fork point found from branch '{}', blame covers the whole history", branch);
+          return WHOLE_HISTORY;
+        }
+        revision = Long.parseLong(forkPoint.commit());
+      } else if (trimmed.chars().allMatch(Character::isDigit)) {
+        revision = Long.parseLong(trimmed);
+      } else {
+        revision = repository.getDatedRevision(parseDate(trimmed));
+      }
+      if (revision <= 1) {
+        return WHOLE_HISTORY;
+      }
+      BlameLine line = new BlameLine()
+        .revision(Long.toString(revision))
+        .date(revisionDate(repository, revision))
+        .author(revisionProperty(repository, revision, SVNRevisionProperty.AUTHOR));
+      LOG.info("SVN blame starts at revision {}, older lines are attributed to it", revision);
+      return new BlameStartRevision(revision, line);
+    } finally {
+      repository.closeSession();
+    }
+  }
+
+  long revision() {
+    return revision;
+  }
+
+  /**
+   * Blame of the lines older than the start revision, null if blame covers the whole history
+   */
+  @CheckForNull
+  BlameLine line() {
+    return line;
+  }
+
+  private static Date parseDate(String value) {
+    try {
+      return DateUtils.parseDateOrDateTime(value);
+    } catch (RuntimeException e) {
+      throw MessageException.of("Invalid SVN blame start revision '" + value + "': expected a revision number, a date or '"
+        + FORK_PREFIX + "<branch>'");
+    }
+  }
+
+  private static SVNURL repositoryRoot(SVNClientManager clientManager, File baseDir) throws SVNException {
+    WorkingCopyDb.Node node = WorkingCopyDb.node(baseDir);
+    if (node != null && node.repositoryRoot() != null) {
+      return SVNURL.parseURIEncoded(node.repositoryRoot());
+    }
+    return clientManager.getWCClient().doInfo(baseDir, null).getRepositoryRootURL();
+  }
+
+  @CheckForNull
+  private static Date revisionDate(SVNRepository repository, long revision) throws SVNException {
+    String date = revisionProperty(repository, revision, SVNRevisionProperty.DATE);
+    return date != null ? SVNDate.parseDate(date) : null;
+  }
+
+  @CheckForNull
+  private static String revisionProperty(SVNRepository repository, long revision, String name) throws SVNException {
+    SVNPropertyValue value = repository.getRevisionPropertyValue(revision, name);
+    return value != null ? value.getString() : null;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Time allowed to blame each file, and all the files, of an analysis. Once the total is spent, files which need to be annotated are skipped,
+ * so that the analysis ends with partial SCM data instead of hanging. Files skipped because of this limit, or because
+ * their own annotation exceeded the time limit of a file, are reported in a summary.
+ */
+class BlameTimeBudget {
+
+  private static final Logger LOG = Loggers.get(BlameTimeBudget.class);
+  private static final int MAX_REPORTED_FILES = 10;
+
+  private final long fileTimeoutMillis;
+  private final long totalTimeoutMillis;
+  private final long start = System.nanoTime();
+  private final AtomicBoolean exhausted = new AtomicBoolean();
+  private final Queue<String> timedOut = new ConcurrentLinkedQueue<>();
+  private final Queue<String> skipped = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Limits are in milliseconds, 0 for no limit
+   */
+  BlameTimeBudget(long fileTimeoutMillis, long totalTimeoutMillis) {
+    this.fileTimeoutMillis = fileTimeoutMillis;
+    this.totalTimeoutMillis = totalTimeoutMillis;
+  }
+
+  /**
+   * Checked before annotating a file, which is skipped if the budget is spent
+   */
+  boolean allows(InputFile inputFile) {
+    if (totalTimeoutMillis <= 0 || TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < totalTimeoutMillis) {
+      return true;
+    }
+    if (exhausted.compareAndSet(false, true)) {
+      LOG.warn("SVN blame exceeded its time limit of {} ms, files which are not in the blame cache are skipped", totalTimeoutMillis);
+    }
+    LOG.debug("Skip blame of file {}, the time limit of blame is exceeded", inputFile);
+    skipped.add(inputFile.toString());
+    return false;
+  }
+
+  void timedOut(InputFile inputFile) {
+    LOG.warn("SVN blame of file {} exceeded its time limit of {} ms, skipping it", inputFile, fileTimeoutMillis);
+    timedOut.add(inputFile.toString());
+  }
+
+  void logSummary() {
+    if (!timedOut.isEmpty()) {
+      LOG.warn("SVN blame of {} file(s) was skipped because it exceeded the time limit of a file: {}", timedOut.size(), describe(timedOut));
+    }
+    if (!skipped.isEmpty()) {
+      LOG.warn("SVN blame of {} file(s) was skipped because the time limit of blame was exceeded: {}", skipped.size(), describe(skipped));
+    }
+  }
+
+  private static String describe(Queue<String> files) {
+    String description = files.stream().limit(MAX_REPORTED_FILES).collect(Collectors.joining(", "));
+    return files.size() > MAX_REPORTED_FILES ? (description + ", ...") : description;
+  }
+}
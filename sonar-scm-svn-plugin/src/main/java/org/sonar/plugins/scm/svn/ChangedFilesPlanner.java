@@ -0,0 +1,67 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import javax.annotation.Nullable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import static org.sonar.plugins.scm.svn.SvnConfiguration.CHANGED_FILES_STRATEGY_LOG;
+import static org.sonar.plugins.scm.svn.SvnConfiguration.CHANGED_FILES_STRATEGY_SUMMARIZE;
+
+/**
+ * Chooses how to find the files changed on a branch. Walking the log costs one entry per revision since the fork,
+ * while a summarized diff between the copy point and the base revision costs one entry per changed file, plus
+ * the comparison done by the server. The log is walked when few revisions are to be read, the diff is summarized otherwise.
+ */
+class ChangedFilesPlanner {
+
+  private static final Logger LOG = Loggers.get(ChangedFilesPlanner.class);
+
+  /**
+   * Number of revisions above which summarizing the diff is expected to be faster than walking the log
+   */
+  static final long SUMMARIZE_THRESHOLD = 1000;
+
+  enum Strategy {
+    LOG, SUMMARIZE
+  }
+
+  private ChangedFilesPlanner() {
+    // only static methods
+  }
+
+  /**
+   * @param configured strategy configured with {@link SvnConfiguration#CHANGED_FILES_STRATEGY_PROP_KEY}, automatic if null
+   * @param revisions number of revisions to read from the log, negative if unknown
+   */
+  static Strategy choose(@Nullable String configured, long revisions) {
+    Strategy strategy;
+    if (CHANGED_FILES_STRATEGY_LOG.equalsIgnoreCase(configured)) {
+      strategy = Strategy.LOG;
+    } else if (CHANGED_FILES_STRATEGY_SUMMARIZE.equalsIgnoreCase(configured)) {
+      strategy = Strategy.SUMMARIZE;
+    } else {
+      strategy = revisions > SUMMARIZE_THRESHOLD ? Strategy.SUMMARIZE : Strategy.LOG;
+    }
+    LOG.debug("Find changed files of {} revisions using strategy {}", revisions, strategy);
+    return strategy;
+  }
+}
@@ -19,145 +19,58 @@
  */
 package org.sonar.plugins.scm.svn;
 
-import java.io.OutputStream;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Collects the changed lines of the included files, as computed by a {@link ChangedLinesDiffGenerator}
+ */
 class ChangedLinesComputer {
 
-  private final Tracker tracker;
-
-  private final OutputStream receiver = new OutputStream() {
-    StringBuilder sb = new StringBuilder();
+  private final Set<Path> included;
+  private final Map<Path, LineRanges> changedLines = new ConcurrentHashMap<>();
+  private final AtomicLong transferred = new AtomicLong();
 
-    @Override
-    public void write(int b) {
-      sb.append((char) b);
-      if (b == '\n') {
-        tracker.parseLine(sb.toString());
-        sb.setLength(0);
-      }
-    }
-  };
+  ChangedLinesComputer(Set<Path> included) {
+    this.included = included;
+  }
 
-  ChangedLinesComputer(Path rootBaseDir, Set<Path> included) {
-    this.tracker = new Tracker(rootBaseDir, included);
+  Map<Path, Set<Integer>> changedLines() {
+    return Collections.unmodifiableMap(changedLines);
   }
 
   /**
-   * The OutputStream to pass to svnkit's diff command.
+   * Number of bytes of file contents transferred by the diff, for the included files or not
    */
-  OutputStream receiver() {
-    return receiver;
+  long bytes() {
+    return transferred.get();
   }
 
   /**
-   * From a stream of svn-style unified diff lines,
-   * compute the line numbers that should be considered changed.
-   *
-   * Example input:
-   * <pre>
-   * Index: path/to/file
-   * ===================================================================
-   * --- lao 2002-02-21 23:30:39.942229878 -0800
-   * +++ tzu 2002-02-21 23:30:50.442260588 -0800
-   * @@ -1,7 +1,6 @@
-   * -The Way that can be told of is not the eternal Way;
-   * -The name that can be named is not the eternal name.
-   *  The Nameless is the origin of Heaven and Earth;
-   * -The Named is the mother of all things.
-   * +The named is the mother of all things.
-   * +
-   *  Therefore let there always be non-being,
-   *    so we may see their subtlety,
-   *  And let there always be being,
-   * @@ -9,3 +8,6 @@
-   *  The two are the same,
-   *  But after they are produced,
-   *    they have different names.
-   * +They both may be called deep and profound.
-   * +Deeper and more profound,
-   * +The door of all subtleties!
-   * </pre>
-   *
-   * See also: http://www.gnu.org/software/diffutils/manual/html_node/Example-Unified.html#Example-Unified
+   * Counts the contents of a file transferred by the diff, safe to call from any thread
    */
-  Map<Path, Set<Integer>> changedLines() {
-    return tracker.changedLines();
+  void addBytes(long bytes) {
+    transferred.addAndGet(bytes);
   }
 
-  private static class Tracker {
-
-    private static final Pattern START_LINE_IN_TARGET = Pattern.compile(" \\+(\\d+)");
-    private static final String ENTRY_START_PREFIX = "Index: ";
-
-    private final Map<Path, Set<Integer>> changedLines = new HashMap<>();
-    private final Set<Path> included;
-    private final Path rootBaseDir;
-
-    private int lineNumInTarget;
-    private Path currentPath = null;
-    private int skipCount = 0;
-
-    Tracker(Path rootBaseDir, Set<Path> included) {
-      this.rootBaseDir = rootBaseDir;
-      this.included = included;
-    }
-
-    private void parseLine(String line) {
-      if (line.startsWith(ENTRY_START_PREFIX)) {
-        currentPath = Paths.get(line.substring(ENTRY_START_PREFIX.length()).trim());
-        if (!currentPath.isAbsolute()) {
-          currentPath = rootBaseDir.resolve(currentPath);
-        }
-        if (!included.contains(currentPath)) {
-          return;
-        }
-        skipCount = 3;
-        return;
-      }
-
-      if (!included.contains(currentPath)) {
-        return;
-      }
-
-      if (skipCount > 0) {
-        skipCount--;
-        return;
-      }
-
-      if (line.startsWith("@@ ")) {
-        Matcher matcher = START_LINE_IN_TARGET.matcher(line);
-        if (!matcher.find()) {
-          throw new IllegalStateException("Invalid block header: " + line);
-        }
-        lineNumInTarget = Integer.parseInt(matcher.group(1));
-        return;
-      }
-
-      parseContent(line);
-    }
-
-    private void parseContent(String line) {
-      char firstChar = line.charAt(0);
-      if (firstChar == ' ') {
-        lineNumInTarget++;
-      } else if (firstChar == '+') {
-        changedLines
-          .computeIfAbsent(currentPath, path -> new HashSet<>())
-          .add(lineNumInTarget);
-        lineNumInTarget++;
-      }
-    }
+  /**
+   * Whether the lines of the file are needed, safe to call from any thread
+   */
+  boolean includes(Path file) {
+    return included.contains(file);
+  }
 
-    Map<Path, Set<Integer>> changedLines() {
-      return changedLines;
+  /**
+   * Adds the lines of a file computed independently. Safe to call from any thread: only the entry of the file is locked
+   * when its lines are merged.
+   */
+  void addFile(Path file, LineRanges lines) {
+    if (!lines.isEmpty()) {
+      changedLines.merge(file, lines, LineRanges::union);
     }
   }
 }
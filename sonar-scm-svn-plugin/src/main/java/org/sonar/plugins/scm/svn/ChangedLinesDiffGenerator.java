@@ -0,0 +1,338 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import de.regnis.q.sequence.QSequenceDifferenceBlock;
+import de.regnis.q.sequence.core.QSequenceException;
+import de.regnis.q.sequence.line.QSequenceLineMedia;
+import de.regnis.q.sequence.line.QSequenceLineRAByteData;
+import de.regnis.q.sequence.line.QSequenceLineRAData;
+import de.regnis.q.sequence.line.QSequenceLineRAFileData;
+import de.regnis.q.sequence.line.QSequenceLineResult;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import javax.annotation.Nullable;
+import org.tmatesoft.svn.core.SVNDepth;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNProperties;
+import org.tmatesoft.svn.core.SVNProperty;
+import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
+import org.tmatesoft.svn.core.internal.wc.SVNFileUtil;
+import org.tmatesoft.svn.core.wc.ISVNDiffGenerator;
+import org.tmatesoft.svn.core.wc.SVNDiffClient;
+import org.tmatesoft.svn.core.wc.SVNRevision;
+
+/**
+ * Diff generator feeding the added lines of each file straight into a {@link ChangedLinesComputer}, without formatting
+ * a unified diff. The lines of the working file are compared to those of the start revision with the same algorithm as
+ * {@link org.tmatesoft.svn.core.wc.DefaultSVNDiffGenerator}, and only for the included files, possibly through a
+ * {@link DiffPipeline}.
+ */
+class ChangedLinesDiffGenerator implements ISVNDiffGenerator {
+
+  private static final QSequenceLineRAData EMPTY = new QSequenceLineRAByteData(new byte[0]);
+
+  private final ChangedLinesComputer computer;
+  @Nullable
+  private final DiffPipeline pipeline;
+  private final DiffBudget budget;
+  private String encoding = "UTF-8";
+  private byte[] eol;
+  private boolean forcedBinaryDiff;
+  private boolean diffDeleted = true;
+  private boolean diffAdded = true;
+  private boolean diffCopied = true;
+  private boolean diffUnversioned;
+  @Nullable
+  private File target;
+  @Nullable
+  private String targetDisplayPath;
+
+  ChangedLinesDiffGenerator(ChangedLinesComputer computer) {
+    this(computer, null, DiffBudget.unlimited());
+  }
+
+  /**
+   * @param pipeline to compare the contents on another thread, otherwise they are compared while SVNKit waits
+   */
+  ChangedLinesDiffGenerator(ChangedLinesComputer computer, @Nullable DiffPipeline pipeline, DiffBudget budget) {
+    this.computer = computer;
+    this.pipeline = pipeline;
+    this.budget = budget;
+  }
+
+  /**
+   * Adds the lines of the working copy changed since the start revision to the computer
+   */
+  static void diff(SVNDiffClient diffClient, Collection<File> paths, SVNRevision startRevision, SVNDepth depth, ChangedLinesComputer computer,
+    DiffBudget budget) throws SVNException {
+    try (DiffPipeline pipeline = new DiffPipeline(computer, DiffPipeline.DEFAULT_CAPACITY)) {
+      ChangedLinesDiffGenerator generator = new ChangedLinesDiffGenerator(computer, pipeline, budget);
+      diffClient.setDiffGenerator(generator);
+      for (File path : paths) {
+        generator.setTarget(path);
+        diffClient.doDiff(path, startRevision, path, SVNRevision.WORKING, depth, false, SVNFileUtil.DUMMY_OUT, null);
+      }
+      pipeline.finish();
+    }
+  }
+
+  /**
+   * The file or directory diffed next, against which the displayed paths are resolved
+   */
+  void setTarget(File target) {
+    this.target = target.getAbsoluteFile();
+  }
+
+  @Override
+  public void displayFileDiff(String path, @Nullable File file1, @Nullable File file2, String rev1, String rev2, @Nullable String mimeType1,
+    @Nullable String mimeType2, OutputStream result) throws SVNException {
+    Path file = absolute(path);
+    computer.addBytes((file1 != null ? file1.length() : 0) + (file2 != null ? file2.length() : 0));
+    if (!computer.includes(file) || file2 == null) {
+      return;
+    }
+    if (!forcedBinaryDiff && (SVNProperty.isBinaryMimeType(mimeType1) || SVNProperty.isBinaryMimeType(mimeType2))) {
+      return;
+    }
+    if (!budget.allows(file, (file1 != null ? file1.length() : 0) + file2.length())) {
+      computer.addFile(file, allLines(file2));
+      return;
+    }
+    if (pipeline != null) {
+      // SVNKit deletes the temporary files once displayed
+      pipeline.submit(file, file1 != null ? read(file1) : null, read(file2));
+      return;
+    }
+    RandomAccessFile left = null;
+    RandomAccessFile right = null;
+    try {
+      left = file1 != null ? SVNFileUtil.openRAFileForReading(file1) : null;
+      right = SVNFileUtil.openRAFileForReading(file2);
+      addLines(computer, file, left != null ? new QSequenceLineRAFileData(left) : EMPTY, new QSequenceLineRAFileData(right));
+    } finally {
+      SVNFileUtil.closeFile(left);
+      SVNFileUtil.closeFile(right);
+    }
+  }
+
+  static void addLines(ChangedLinesComputer computer, Path file, @Nullable byte[] left, byte[] right) throws SVNException {
+    addLines(computer, file, left != null ? new QSequenceLineRAByteData(left) : EMPTY, new QSequenceLineRAByteData(right));
+  }
+
+  /**
+   * Builds the lines of the file on its own, so that files can be compared in parallel
+   */
+  private static void addLines(ChangedLinesComputer computer, Path file, QSequenceLineRAData left, QSequenceLineRAData right)
+    throws SVNException {
+    QSequenceLineResult blocks = null;
+    try {
+      LineRanges lines = new LineRanges();
+      blocks = QSequenceLineMedia.createBlocks(left, right);
+      for (Object block : blocks.getBlocks()) {
+        QSequenceDifferenceBlock difference = (QSequenceDifferenceBlock) block;
+        if (difference.getRightTo() >= difference.getRightFrom()) {
+          lines.addLines(difference.getRightFrom() + 1, difference.getRightTo() + 1);
+        }
+      }
+      computer.addFile(file, lines);
+    } catch (IOException | QSequenceException e) {
+      SVNErrorMessage err = SVNErrorMessage.create(SVNErrorCode.IO_ERROR, "Unable to diff {0}: {1}", file, e.getMessage());
+      throw new SVNException(err, e);
+    } finally {
+      close(blocks);
+    }
+  }
+
+  /**
+   * Counts the lines of the file without loading it, like {@link org.sonar.api.batch.fs.InputFile#lines()}: LF, CR LF
+   * and CR end a line, and the line after the last end of line counts even when empty.
+   */
+  static LineRanges allLines(File file) throws SVNException {
+    int lines = 1;
+    boolean afterCarriageReturn = false;
+    byte[] buffer = new byte[64 * 1024];
+    try (InputStream input = new FileInputStream(file)) {
+      int read;
+      while ((read = input.read(buffer)) > 0) {
+        for (int i = 0; i < read; i++) {
+          byte b = buffer[i];
+          if (b == '\r' || (b == '\n' && !afterCarriageReturn)) {
+            lines++;
+          }
+          afterCarriageReturn = b == '\r';
+        }
+      }
+    } catch (IOException e) {
+      SVNErrorMessage err = SVNErrorMessage.create(SVNErrorCode.IO_ERROR, "Unable to read {0}: {1}", file, e.getMessage());
+      throw new SVNException(err, e);
+    }
+    LineRanges ranges = new LineRanges();
+    ranges.addLines(1, lines);
+    return ranges;
+  }
+
+  private static byte[] read(File file) throws SVNException {
+    try {
+      return Files.readAllBytes(file.toPath());
+    } catch (IOException e) {
+      SVNErrorMessage err = SVNErrorMessage.create(SVNErrorCode.IO_ERROR, "Unable to read {0}: {1}", file, e.getMessage());
+      throw new SVNException(err, e);
+    }
+  }
+
+  /**
+   * SVNKit displays the paths relative to the current directory when they are in it, so relative paths are resolved
+   * against the diff target from its display path given to {@link #init}, or else as SVNKit made them relative.
+   */
+  private Path absolute(String path) {
+    Path file = Paths.get(path);
+    if (file.isAbsolute()) {
+      return file;
+    }
+    if (target != null && targetDisplayPath != null) {
+      String child = path.equals(targetDisplayPath) ? "" : SVNPathUtil.getPathAsChild(targetDisplayPath, path);
+      if (child != null) {
+        return target.toPath().resolve(child);
+      }
+    }
+    return new File(path).getAbsoluteFile().toPath();
+  }
+
+  private static void close(@Nullable QSequenceLineResult blocks) {
+    if (blocks != null) {
+      try {
+        blocks.close();
+      } catch (IOException e) {
+        // only temporary files
+      }
+    }
+  }
+
+  @Override
+  public void init(String anchorPath1, String anchorPath2) {
+    this.targetDisplayPath = anchorPath2;
+  }
+
+  @Override
+  public void setBasePath(File basePath) {
+    // only given for diffs relative to a directory, the paths are still displayed from the current directory
+  }
+
+  @Override
+  public void setForcedBinaryDiff(boolean forced) {
+    this.forcedBinaryDiff = forced;
+  }
+
+  @Override
+  public boolean isForcedBinaryDiff() {
+    return forcedBinaryDiff;
+  }
+
+  @Override
+  public void setEncoding(String encoding) {
+    this.encoding = encoding;
+  }
+
+  @Override
+  public String getEncoding() {
+    return encoding;
+  }
+
+  @Override
+  public void setEOL(byte[] eol) {
+    this.eol = eol;
+  }
+
+  @Override
+  public byte[] getEOL() {
+    return eol;
+  }
+
+  @Override
+  public void setDiffDeleted(boolean isDiffDeleted) {
+    this.diffDeleted = isDiffDeleted;
+  }
+
+  @Override
+  public boolean isDiffDeleted() {
+    return diffDeleted;
+  }
+
+  @Override
+  public void setDiffAdded(boolean isDiffAdded) {
+    this.diffAdded = isDiffAdded;
+  }
+
+  @Override
+  public boolean isDiffAdded() {
+    return diffAdded;
+  }
+
+  @Override
+  public void setDiffCopied(boolean isDiffCopied) {
+    this.diffCopied = isDiffCopied;
+  }
+
+  @Override
+  public boolean isDiffCopied() {
+    return diffCopied;
+  }
+
+  @Override
+  public void setDiffUnversioned(boolean diffUnversioned) {
+    this.diffUnversioned = diffUnversioned;
+  }
+
+  @Override
+  public boolean isDiffUnversioned() {
+    return diffUnversioned;
+  }
+
+  @Override
+  public File createTempDirectory() throws SVNException {
+    return SVNFileUtil.createTempDirectory("diff");
+  }
+
+  @Override
+  public void displayPropDiff(String path, SVNProperties baseProps, SVNProperties diff, OutputStream result) {
+    // properties have no lines
+  }
+
+  @Override
+  public void displayDeletedDirectory(String path, String rev1, String rev2) {
+    // no lines
+  }
+
+  @Override
+  public void displayAddedDirectory(String path, String rev1, String rev2) {
+    // files of the directory are displayed one by one
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
+
+/**
+ * Files changed on branches since their copy point, persisted between analyses and keyed by branch URL.
+ * Each entry records the revision up to which the log of the branch was processed, so that the next analysis
+ * only applies the newer log entries. Least recently used branches are evicted first.
+ */
+class ChangedPathIndex {
+
+  private static final Logger LOG = Loggers.get(ChangedPathIndex.class);
+
+  private static final int MAGIC = 0x53564e43;
+  private static final int VERSION = 3;
+  private static final int MAX_BRANCHES = 100;
+
+  private final Path file;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private boolean modified;
+
+  ChangedPathIndex(Path file) {
+    this.file = file;
+  }
+
+  static ChangedPathIndex load(Path file) {
+    ChangedPathIndex index = new ChangedPathIndex(file);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      index.read(in);
+    } catch (NoSuchFileException e) {
+      LOG.debug("No SVN changed path index found at {}", file);
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Ignoring invalid SVN changed path index " + file, e);
+      index.entries.clear();
+    }
+    return index;
+  }
+
+  @CheckForNull
+  synchronized Entry get(String branchUrl) {
+    return entries.get(branchUrl);
+  }
+
+  synchronized void put(String branchUrl, Entry entry) {
+    entries.put(branchUrl, entry);
+    modified = true;
+    if (entries.size() > MAX_BRANCHES) {
+      entries.remove(entries.keySet().iterator().next());
+    }
+  }
+
+  /**
+   * Writes the index if it changed since it was loaded
+   */
+  synchronized void save() throws IOException {
+    if (!modified) {
+      return;
+    }
+    Files.createDirectories(file.getParent());
+    Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        write(out);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      modified = false;
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private void write(DataOutput out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(entries.size());
+    // least recently used first, so that the access order is restored on load
+    for (Map.Entry<String, Entry> e : entries.entrySet()) {
+      Entry entry = e.getValue();
+      out.writeUTF(e.getKey());
+      out.writeLong(entry.copyRevision);
+      out.writeLong(entry.revision);
+      entry.changed.write(out);
+      entry.removed.write(out);
+    }
+  }
+
+  private void read(DataInput in) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Unsupported format");
+    }
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      String branchUrl = in.readUTF();
+      long copyRevision = in.readLong();
+      long revision = in.readLong();
+      PathTrie changed = new PathTrie();
+      changed.read(in);
+      PathTrie removed = new PathTrie(changed);
+      removed.read(in);
+      entries.put(branchUrl, new Entry(copyRevision, revision, changed, removed));
+    }
+  }
+
+  /**
+   * Repository paths of the files added or modified on a branch and not removed since, up to a revision
+   */
+  static class Entry {
+    private final long copyRevision;
+    private final long revision;
+    private final PathTrie changed;
+    private final PathTrie removed;
+
+    Entry(long copyRevision, long revision, PathTrie changed, PathTrie removed) {
+      this.copyRevision = copyRevision;
+      this.revision = revision;
+      this.changed = changed;
+      this.removed = removed;
+    }
+
+    /**
+     * The same path may appear in multiple log entries, a change is ignored if the file is removed in a more recent entry.
+     *
+     * Log entries list all the paths changed by a commit, only those in the given directory are kept.
+     *
+     * @param logEntries newest first, down to the copy point
+     * @param directory repository path of the project directory, such as "/branches/b1"
+     */
+    static Entry of(List<SVNLogEntry> logEntries, String directory, long revision) {
+      long copyRevision = logEntries.isEmpty() ? 0 : logEntries.get(logEntries.size() - 1).getRevision();
+      return of(logEntries, directory, copyRevision, revision);
+    }
+
+    private static Entry of(List<SVNLogEntry> logEntries, String directory, long copyRevision, long revision) {
+      PathTrie changed = new PathTrie();
+      PathTrie removed = new PathTrie(changed);
+      for (SVNLogEntry logEntry : logEntries) {
+        for (SVNLogEntryPath entry : logEntry.getChangedPaths().values()) {
+          if (entry.getKind().equals(SVNNodeKind.FILE) && SVNPathUtil.isAncestor(directory, entry.getPath())) {
+            if (entry.getType() == SVNLogEntryPath.TYPE_ADDED || entry.getType() == SVNLogEntryPath.TYPE_MODIFIED) {
+              if (!removed.contains(entry.getPath())) {
+                changed.add(entry.getPath());
+              }
+            } else if (entry.getType() == SVNLogEntryPath.TYPE_DELETED) {
+              removed.add(entry.getPath());
+            }
+          }
+        }
+      }
+      return new Entry(copyRevision, revision, changed, removed);
+    }
+
+    /**
+     * @param newerLogEntries newest first, down to the revision following the one of this entry
+     */
+    Entry apply(List<SVNLogEntry> newerLogEntries, String directory, long newRevision) {
+      Entry newer = of(newerLogEntries, directory, copyRevision, newRevision);
+      newer.changed.addAll(changed, newer.removed);
+      newer.removed.addAll(removed);
+      return newer;
+    }
+
+    long copyRevision() {
+      return copyRevision;
+    }
+
+    long revision() {
+      return revision;
+    }
+
+    /**
+     * Not to be modified
+     */
+    PathTrie changed() {
+      return changed;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.sonar.api.batch.scm.BlameLine;
+
+/**
+ * Blame of a file stored as a table of distinct {@link BlameLine} plus, for each line, the index of its entry in the table.
+ * Lines attributed to the same commit share the same {@link BlameLine} instance.
+ */
+class CompactBlame {
+
+  private final BlameLine[] table;
+  private final int[] lines;
+
+  CompactBlame(BlameLine[] table, int[] lines) {
+    this.table = table;
+    this.lines = lines;
+  }
+
+  static CompactBlame of(List<BlameLine> blameLines) {
+    Map<BlameLine, Integer> indexes = new HashMap<>();
+    int[] lines = new int[blameLines.size()];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = indexes.computeIfAbsent(blameLines.get(i), l -> indexes.size());
+    }
+    BlameLine[] table = new BlameLine[indexes.size()];
+    indexes.forEach((line, index) -> table[index] = line);
+    return new CompactBlame(table, lines);
+  }
+
+  BlameLine[] table() {
+    return table;
+  }
+
+  int[] lines() {
+    return lines;
+  }
+
+  int size() {
+    return lines.length;
+  }
+
+  /**
+   * Read-only view of the lines, backed by the table.
+   */
+  List<BlameLine> toList() {
+    return new AbstractList<BlameLine>() {
+      @Override
+      public BlameLine get(int index) {
+        return table[lines[index]];
+      }
+
+      @Override
+      public int size() {
+        return lines.length;
+      }
+    };
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    return toList().equals(((CompactBlame) o).toList());
+  }
+
+  @Override
+  public int hashCode() {
+    return toList().hashCode();
+  }
+}
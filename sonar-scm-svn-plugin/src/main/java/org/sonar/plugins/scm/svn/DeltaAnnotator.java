@@ -0,0 +1,540 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import de.regnis.q.sequence.QSequenceDifference;
+import de.regnis.q.sequence.QSequenceDifferenceBlock;
+import de.regnis.q.sequence.QSequenceDifferenceBlockShifter;
+import de.regnis.q.sequence.core.QSequenceCancelledException;
+import de.regnis.q.sequence.core.QSequenceCanceller;
+import de.regnis.q.sequence.core.QSequenceDummyCanceller;
+import de.regnis.q.sequence.core.QSequenceException;
+import de.regnis.q.sequence.line.QSequenceLineMedia;
+import de.regnis.q.sequence.media.QSequenceDiscardingMedia;
+import de.regnis.q.sequence.media.QSequenceDiscardingMediaNoConfusionDectector;
+import de.regnis.q.sequence.media.QSequenceIntMedia;
+import de.regnis.q.sequence.media.QSequenceMediaDummyIndexTransformer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.tmatesoft.svn.core.ISVNCanceller;
+import org.tmatesoft.svn.core.SVNCancelException;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNProperties;
+import org.tmatesoft.svn.core.SVNRevisionProperty;
+import org.tmatesoft.svn.core.internal.util.SVNDate;
+import org.tmatesoft.svn.core.io.ISVNFileRevisionHandler;
+import org.tmatesoft.svn.core.io.SVNFileRevision;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaProcessor;
+import org.tmatesoft.svn.core.io.diff.SVNDiffWindow;
+
+/**
+ * Annotates a file from the deltas sent by {@link SVNRepository#getFileRevisions}, without the temporary files
+ * of {@link org.tmatesoft.svn.core.SVNAnnotationGenerator}. Each revision of the file is rebuilt in memory from the
+ * previous one, its lines are reduced to int symbols and the owner of each line is kept in int arrays.
+ * <p>
+ * Attribution is the same as the one of SVNKit, with merged revisions included and all whitespace and end of line
+ * changes ignored: lines are compared the same way and diffed by the same q.sequence algorithm, run on the symbols.
+ */
+class DeltaAnnotator implements ISVNFileRevisionHandler {
+
+  private final long startRevision;
+  private final long endRevision;
+  private final ISVNCanceller canceller;
+  private final QSequenceCanceller diffCanceller;
+  private final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+    .onMalformedInput(CodingErrorAction.REPLACE)
+    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final SVNDeltaProcessor deltaProcessor = new SVNDeltaProcessor();
+  private final List<Origin> origins = new ArrayList<>();
+
+  private long currentRevision = SVNRepository.INVALID_REVISION;
+  private String currentAuthor;
+  private Date currentDate;
+  private boolean currentResultOfMerge;
+  private int currentOwner = -1;
+  private Buffer target;
+
+  private Content previousFile;
+  private Content previousOriginalFile;
+  private Ownership blameChain;
+  private Ownership mergeChain;
+
+  DeltaAnnotator(long startRevision, long endRevision, ISVNCanceller canceller) {
+    this.startRevision = startRevision;
+    this.endRevision = endRevision;
+    this.canceller = canceller;
+    this.diffCanceller = () -> {
+      try {
+        canceller.checkCancelled();
+      } catch (SVNCancelException e) {
+        throw new QSequenceCancelledException();
+      }
+    };
+  }
+
+  @Override
+  public void openRevision(SVNFileRevision fileRevision) throws SVNException {
+    canceller.checkCancelled();
+    long revision = fileRevision.getRevision();
+    SVNProperties props = null;
+    if (fileRevision.isResultOfMerge() || revision >= Math.min(startRevision, endRevision)) {
+      currentRevision = revision;
+      props = fileRevision.getRevisionProperties();
+    } else {
+      currentRevision = SVNRepository.INVALID_REVISION;
+    }
+    boolean known = revision >= startRevision;
+    currentAuthor = known && props != null ? props.getStringValue(SVNRevisionProperty.AUTHOR) : null;
+    String date = known && props != null ? props.getStringValue(SVNRevisionProperty.DATE) : null;
+    currentDate = date != null ? SVNDate.parseDate(date) : null;
+    currentResultOfMerge = fileRevision.isResultOfMerge();
+    currentOwner = -1;
+  }
+
+  @Override
+  public void closeRevision(String token) {
+    // nothing to do
+  }
+
+  @Override
+  public void applyTextDelta(String path, String baseChecksum) {
+    target = new Buffer(previousFile != null ? previousFile.length : 0);
+    ByteArrayInputStream base = previousFile != null ? new ByteArrayInputStream(previousFile.bytes, 0, previousFile.length) : null;
+    deltaProcessor.applyTextDelta(base, target, false);
+  }
+
+  @Override
+  public OutputStream textDeltaChunk(String path, SVNDiffWindow diffWindow) throws SVNException {
+    canceller.checkCancelled();
+    return deltaProcessor.textDeltaChunk(diffWindow);
+  }
+
+  @Override
+  public void textDeltaEnd(String path) throws SVNException {
+    deltaProcessor.textDeltaEnd();
+    Content currentFile = Content.of(target.bytes(), target.size(), decoder);
+    target = null;
+
+    mergeChain = addFileBlame(previousFile, currentFile, mergeChain);
+    if (!currentResultOfMerge) {
+      blameChain = addFileBlame(previousOriginalFile, currentFile, blameChain);
+      previousOriginalFile = currentFile;
+    }
+    previousFile = currentFile;
+  }
+
+  /**
+   * Reports the lines of the last revision, same as {@link org.tmatesoft.svn.core.SVNAnnotationGenerator#reportAnnotations}
+   */
+  void report(AnnotationHandler handler) {
+    if (previousFile == null) {
+      return;
+    }
+    Ownership blame = blameChain != null ? blameChain : Ownership.all(0, currentOwner());
+    for (int line = 0; line < previousFile.lineCount; line++) {
+      Origin origin = origins.get(blame.owner(line));
+      Origin merged = origins.get(mergeChain.owner(line));
+      handler.addLine(origin.revision, merged.date, merged.revision, merged.author, previousFile.lineHashes[line]);
+    }
+  }
+
+  private Ownership addFileBlame(@Nullable Content previous, Content current, @Nullable Ownership chain) throws SVNException {
+    if (previous == null || chain == null) {
+      return Ownership.all(current.lineCount, origin(currentDate != null ? currentRevision : SVNRepository.INVALID_REVISION));
+    }
+    try {
+      return chain.apply(blocks(previous, current), current.lineCount, currentOwner());
+    } catch (QSequenceCancelledException e) {
+      canceller.checkCancelled();
+      throw new IllegalStateException("Diff of file revisions cancelled unexpectedly", e);
+    } catch (QSequenceException e) {
+      SVNErrorMessage err = SVNErrorMessage.create(SVNErrorCode.UNKNOWN, "Exception while generating annotation: {0}", e.getMessage());
+      throw new SVNException(err, e);
+    }
+  }
+
+  private int currentOwner() {
+    if (currentOwner < 0) {
+      currentOwner = origin(currentRevision);
+    }
+    return currentOwner;
+  }
+
+  private int origin(long revision) {
+    origins.add(new Origin(revision, currentDate, currentAuthor));
+    return origins.size() - 1;
+  }
+
+  /**
+   * Same steps as {@link QSequenceLineMedia#createBlocks}, on the symbols of the lines instead of their bytes
+   */
+  private List<QSequenceDifferenceBlock> blocks(Content left, Content right) throws QSequenceException {
+    boolean inMemory = left.length <= QSequenceLineMedia.MEMORY_THRESHOLD && right.length <= QSequenceLineMedia.MEMORY_THRESHOLD;
+    return blocks(SymbolMedia.of(left, right, diffCanceller), inMemory, diffCanceller);
+  }
+
+  /**
+   * Matches the lines of two revisions of a file from the hashes of their lines, see {@link AnnotationHandler#hash(String)},
+   * with the same diff as the annotation
+   *
+   * @return for each right line, the index of the same left line, or -1 if the line was inserted or changed
+   */
+  static int[] matchLines(int[] leftHashes, int[] rightHashes) throws QSequenceException {
+    QSequenceCanceller canceller = new QSequenceDummyCanceller();
+    int[] matches = new int[rightHashes.length];
+    int left = 0;
+    int right = 0;
+    for (QSequenceDifferenceBlock block : blocks(SymbolMedia.of(leftHashes, rightHashes, canceller), true, canceller)) {
+      while (right < block.getRightFrom()) {
+        matches[right++] = left++;
+      }
+      left += block.getLeftSize();
+      for (int i = 0; i < block.getRightSize(); i++) {
+        matches[right++] = -1;
+      }
+    }
+    while (right < rightHashes.length) {
+      matches[right++] = left++;
+    }
+    return matches;
+  }
+
+  private static List<QSequenceDifferenceBlock> blocks(SymbolMedia media, boolean inMemory, QSequenceCanceller canceller)
+    throws QSequenceException {
+    int searchDepth = searchDepth(media.getLeftLength() + media.getRightLength());
+    List<QSequenceDifferenceBlock> blocks;
+    if (inMemory) {
+      QSequenceDiscardingMedia discardingMedia = new QSequenceDiscardingMedia(media, new QSequenceDiscardingMediaNoConfusionDectector(true),
+        canceller);
+      blocks = new QSequenceDifference(discardingMedia, discardingMedia, searchDepth).getBlocks();
+    } else {
+      blocks = new QSequenceDifference(media, new QSequenceMediaDummyIndexTransformer(media), searchDepth).getBlocks();
+    }
+    new QSequenceDifferenceBlockShifter(media, media).shiftBlocks(blocks);
+    return blocks;
+  }
+
+  private static int searchDepth(int lineCount) {
+    double exponent = QSequenceLineMedia.SEARCH_DEPTH_EXPONENT;
+    if (exponent == 1) {
+      return Integer.MAX_VALUE;
+    }
+    return Math.max(256, (int) Math.pow(lineCount, exponent));
+  }
+
+  private static class Origin {
+    private final long revision;
+    private final Date date;
+    private final String author;
+
+    Origin(long revision, @Nullable Date date, @Nullable String author) {
+      this.revision = revision;
+      this.date = date;
+      this.author = author;
+    }
+  }
+
+  /**
+   * Owner of each line of a revision, as an index of the origins. Lines after the last one belong to the owner
+   * of the first revision, like the last chunk of a blame chain of SVNKit.
+   */
+  private static class Ownership {
+    private final int[] owners;
+    private final int tail;
+
+    Ownership(int[] owners, int tail) {
+      this.owners = owners;
+      this.tail = tail;
+    }
+
+    static Ownership all(int lineCount, int owner) {
+      int[] owners = new int[lineCount];
+      Arrays.fill(owners, owner);
+      return new Ownership(owners, owner);
+    }
+
+    int owner(int line) {
+      return line < owners.length ? owners[line] : tail;
+    }
+
+    /**
+     * Lines out of the blocks are kept, the lines inserted or changed by the blocks belong to the given owner
+     */
+    Ownership apply(List<QSequenceDifferenceBlock> blocks, int lineCount, int owner) {
+      int[] result = new int[lineCount];
+      int left = 0;
+      int right = 0;
+      for (QSequenceDifferenceBlock block : blocks) {
+        while (right < block.getRightFrom()) {
+          result[right++] = owner(left++);
+        }
+        left += block.getLeftSize();
+        for (int i = 0; i < block.getRightSize(); i++) {
+          result[right++] = owner;
+        }
+      }
+      while (right < lineCount) {
+        result[right++] = owner(left++);
+      }
+      return new Ownership(result, tail);
+    }
+  }
+
+  /**
+   * Lines of a revision of the file. Each line is only kept as its comparison key: the characters which are not
+   * whitespace, followed by a line feed if the line has an end of line, whatever its style.
+   */
+  private static class Content {
+    private final byte[] bytes;
+    private final int length;
+    private final int lineCount;
+    private final char[] keys;
+    private final int[] keyStarts;
+    private final int[] keyHashes;
+    private final int[] lineHashes;
+
+    private Content(byte[] bytes, int length, int lineCount, char[] keys, int[] keyStarts, int[] keyHashes, int[] lineHashes) {
+      this.bytes = bytes;
+      this.length = length;
+      this.lineCount = lineCount;
+      this.keys = keys;
+      this.keyStarts = keyStarts;
+      this.keyHashes = keyHashes;
+      this.lineHashes = lineHashes;
+    }
+
+    /**
+     * Lines end with \n, \r\n or \r, and the last one may have no end of line
+     */
+    static Content of(byte[] bytes, int length, CharsetDecoder decoder) {
+      CharBuffer keys = CharBuffer.allocate((int) (length * Math.max(1f, decoder.maxCharsPerByte())) + 1);
+      int capacity = 16;
+      int[] keyStarts = new int[capacity + 1];
+      int[] keyHashes = new int[capacity];
+      int[] lineHashes = new int[capacity];
+      int lineCount = 0;
+      int i = 0;
+      while (i < length) {
+        int start = i;
+        boolean ascii = true;
+        while (i < length && bytes[i] != '\n' && bytes[i] != '\r') {
+          ascii &= bytes[i] >= 0;
+          i++;
+        }
+        int end = i;
+        boolean eol = i < length;
+        if (eol) {
+          i += bytes[i] == '\r' && i + 1 < length && bytes[i + 1] == '\n' ? 2 : 1;
+        }
+
+        if (lineCount == capacity) {
+          capacity *= 2;
+          keyStarts = Arrays.copyOf(keyStarts, capacity + 1);
+          keyHashes = Arrays.copyOf(keyHashes, capacity);
+          lineHashes = Arrays.copyOf(lineHashes, capacity);
+        }
+        int hash = appendKey(bytes, start, end, ascii, decoder, keys);
+        lineHashes[lineCount] = hash;
+        if (eol) {
+          keys.put('\n');
+          hash = 31 * hash + '\n';
+        }
+        keyHashes[lineCount] = hash;
+        lineCount++;
+        keyStarts[lineCount] = keys.position();
+      }
+      return new Content(bytes, length, lineCount, keys.array(), keyStarts, keyHashes, lineHashes);
+    }
+
+    /**
+     * Appends the characters of the line which are not whitespace, and returns their hash, which is the same as
+     * {@link AnnotationHandler#hash(String)} of the line
+     */
+    private static int appendKey(byte[] bytes, int start, int end, boolean ascii, CharsetDecoder decoder, CharBuffer keys) {
+      int from = keys.position();
+      if (ascii) {
+        for (int i = start; i < end; i++) {
+          keys.put((char) bytes[i]);
+        }
+      } else {
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(bytes, start, end - start), keys, true);
+        decoder.flush(keys);
+      }
+      int to = from;
+      int hash = 0;
+      char[] chars = keys.array();
+      for (int i = from; i < keys.position(); i++) {
+        char c = chars[i];
+        if (!Character.isWhitespace(c)) {
+          chars[to++] = c;
+          hash = 31 * hash + c;
+        }
+      }
+      keys.position(to);
+      return hash;
+    }
+
+    boolean sameKey(int line, Content other, int otherLine) {
+      int from = keyStarts[line];
+      int to = keyStarts[line + 1];
+      int otherFrom = other.keyStarts[otherLine];
+      if (to - from != other.keyStarts[otherLine + 1] - otherFrom) {
+        return false;
+      }
+      for (int i = 0; i < to - from; i++) {
+        if (keys[from + i] != other.keys[otherFrom + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Lines of two revisions as symbols, equal lines sharing the same symbol
+   */
+  private static class SymbolMedia extends QSequenceIntMedia {
+    private final int[] leftSymbols;
+    private final int[] rightSymbols;
+    private final int symbolCount;
+
+    private SymbolMedia(int[] leftSymbols, int[] rightSymbols, int symbolCount, QSequenceCanceller canceller) {
+      super(canceller);
+      this.leftSymbols = leftSymbols;
+      this.rightSymbols = rightSymbols;
+      this.symbolCount = symbolCount;
+    }
+
+    static SymbolMedia of(Content left, Content right, QSequenceCanceller canceller) {
+      int lineCount = left.lineCount + right.lineCount;
+      int mask = Integer.highestOneBit(Math.max(2, lineCount) * 2) * 2 - 1;
+      // index of the first line having the symbol, lines of the right side being after the ones of the left side
+      int[] slots = new int[mask + 1];
+      int[] slotSymbols = new int[mask + 1];
+      Arrays.fill(slots, -1);
+      int[] symbols = new int[lineCount];
+      int symbolCount = 0;
+      for (int line = 0; line < lineCount; line++) {
+        Content content = line < left.lineCount ? left : right;
+        int contentLine = line < left.lineCount ? line : (line - left.lineCount);
+        int slot = mix(content.keyHashes[contentLine]) & mask;
+        while (true) {
+          int first = slots[slot];
+          if (first < 0) {
+            slots[slot] = line;
+            slotSymbols[slot] = symbolCount;
+            symbols[line] = symbolCount++;
+            break;
+          }
+          Content firstContent = first < left.lineCount ? left : right;
+          int firstLine = first < left.lineCount ? first : (first - left.lineCount);
+          if (content.keyHashes[contentLine] == firstContent.keyHashes[firstLine] && content.sameKey(contentLine, firstContent, firstLine)) {
+            symbols[line] = slotSymbols[slot];
+            break;
+          }
+          slot = (slot + 1) & mask;
+        }
+      }
+      return new SymbolMedia(Arrays.copyOf(symbols, left.lineCount), Arrays.copyOfRange(symbols, left.lineCount, lineCount), symbolCount,
+        canceller);
+    }
+
+    /**
+     * Lines are equal when their hashes are
+     */
+    static SymbolMedia of(int[] leftHashes, int[] rightHashes, QSequenceCanceller canceller) {
+      Map<Integer, Integer> symbols = new HashMap<>();
+      int[] leftSymbols = new int[leftHashes.length];
+      for (int i = 0; i < leftHashes.length; i++) {
+        leftSymbols[i] = symbols.computeIfAbsent(leftHashes[i], h -> symbols.size());
+      }
+      int[] rightSymbols = new int[rightHashes.length];
+      for (int i = 0; i < rightHashes.length; i++) {
+        rightSymbols[i] = symbols.computeIfAbsent(rightHashes[i], h -> symbols.size());
+      }
+      return new SymbolMedia(leftSymbols, rightSymbols, symbols.size(), canceller);
+    }
+
+    private static int mix(int hash) {
+      int h = hash * 0x9E3779B9;
+      return h ^ (h >>> 16);
+    }
+
+    @Override
+    public int getLeftLength() {
+      return leftSymbols.length;
+    }
+
+    @Override
+    public int getRightLength() {
+      return rightSymbols.length;
+    }
+
+    @Override
+    public boolean equals(int leftIndex, int rightIndex) {
+      return leftSymbols[leftIndex] == rightSymbols[rightIndex];
+    }
+
+    @Override
+    public int getSymbolCount() {
+      return symbolCount;
+    }
+
+    @Override
+    public int[] getLeftSymbols() {
+      return leftSymbols;
+    }
+
+    @Override
+    public int[] getRightSymbols() {
+      return rightSymbols;
+    }
+  }
+
+  /**
+   * Gives access to the bytes written, to avoid copying each revision of the file
+   */
+  private static class Buffer extends ByteArrayOutputStream {
+    Buffer(int size) {
+      super(Math.max(32, size));
+    }
+
+    byte[] bytes() {
+      return buf;
+    }
+  }
+}
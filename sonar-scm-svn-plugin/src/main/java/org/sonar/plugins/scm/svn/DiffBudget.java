@@ -0,0 +1,77 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Limits the size of the contents compared to find changed lines, per file and in total. All the lines of a file
+ * over the limits are considered changed, without comparing it. Shared by the threads diffing the changed files.
+ * <p>
+ * The budget limits the time and memory spent comparing contents, not the transfer: it is checked once SVNKit has
+ * already fetched both contents of a file.
+ */
+class DiffBudget {
+
+  private static final Logger LOG = Loggers.get(DiffBudget.class);
+
+  private final long fileMaxSize;
+  private final long totalMaxSize;
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicBoolean totalExceeded = new AtomicBoolean();
+
+  /**
+   * @param fileMaxSize in bytes, 0 for no limit
+   * @param totalMaxSize in bytes, 0 for no limit
+   */
+  DiffBudget(long fileMaxSize, long totalMaxSize) {
+    this.fileMaxSize = fileMaxSize;
+    this.totalMaxSize = totalMaxSize;
+  }
+
+  static DiffBudget unlimited() {
+    return new DiffBudget(0, 0);
+  }
+
+  /**
+   * @param size of the base and working contents of the file
+   * @return false if the file must not be compared
+   */
+  boolean allows(Path file, long size) {
+    if (fileMaxSize > 0 && size > fileMaxSize) {
+      LOG.info("Not diffing {}: its {} bytes exceed the limit of {} bytes per file, all its lines are considered changed", file, size, fileMaxSize);
+      return false;
+    }
+    if (totalMaxSize > 0 && total.addAndGet(size) > totalMaxSize) {
+      total.addAndGet(-size);
+      if (totalExceeded.compareAndSet(false, true)) {
+        LOG.info("Diffs of changed files exceed the limit of {} bytes in total, all the lines of the files over the limit are considered changed",
+          totalMaxSize);
+      }
+      LOG.debug("Not diffing {}: its {} bytes exceed the remaining total limit", file, size);
+      return false;
+    }
+    return true;
+  }
+}
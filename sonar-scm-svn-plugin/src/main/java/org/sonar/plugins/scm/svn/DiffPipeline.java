@@ -0,0 +1,179 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNException;
+
+/**
+ * Compares the contents of the changed files on threads of its own, so that SVNKit goes on transferring the next files
+ * in the meantime. Each file is compared by an independent task, which merges its own lines into the computer.
+ * Contents waiting to be compared are bounded in bytes: the diff blocks when the comparisons fall behind.
+ * A single file larger than the bound is accepted once the others are compared. The threads are stopped on close,
+ * once the tasks in flight are done.
+ */
+class DiffPipeline implements AutoCloseable {
+
+  static final long DEFAULT_CAPACITY = 32L * 1024 * 1024;
+
+  private final ChangedLinesComputer computer;
+  private final long capacity;
+  private final ExecutorService executor;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition released = lock.newCondition();
+  private long pendingBytes;
+  private int pendingFiles;
+  private boolean closed;
+  private Exception failure;
+
+  DiffPipeline(ChangedLinesComputer computer, long capacity) {
+    this(computer, capacity, Runtime.getRuntime().availableProcessors());
+  }
+
+  DiffPipeline(ChangedLinesComputer computer, long capacity, int threads) {
+    this.computer = computer;
+    this.capacity = capacity;
+    this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new CompareThreadFactory());
+  }
+
+  /**
+   * Waits while the contents being compared exceed the capacity
+   */
+  void submit(Path file, @Nullable byte[] left, byte[] right) throws SVNException {
+    long size = (left != null ? left.length : 0L) + right.length;
+    lock.lock();
+    try {
+      while (failure == null && pendingFiles > 0 && pendingBytes + size > capacity) {
+        released.await();
+      }
+      checkFailure();
+      pendingBytes += size;
+      pendingFiles++;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while diffing changed files", e);
+    } finally {
+      lock.unlock();
+    }
+    executor.execute(() -> compare(file, left, right, size));
+  }
+
+  private void compare(Path file, @Nullable byte[] left, byte[] right, long size) {
+    Exception error = null;
+    if (!isClosed()) {
+      try {
+        ChangedLinesDiffGenerator.addLines(computer, file, left, right);
+      } catch (SVNException | RuntimeException e) {
+        error = e;
+      }
+    }
+    lock.lock();
+    try {
+      pendingBytes -= size;
+      pendingFiles--;
+      if (error != null && failure == null) {
+        failure = error;
+      }
+      released.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits for all the submitted contents to be compared
+   */
+  void finish() throws SVNException {
+    lock.lock();
+    try {
+      while (pendingFiles > 0) {
+        released.await();
+      }
+      checkFailure();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while diffing changed files", e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Contents not compared yet are skipped, and the comparisons in flight are waited for, so that the computer is not
+   * changed afterwards
+   */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+    } finally {
+      lock.unlock();
+    }
+    executor.shutdown();
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        // comparisons of large files
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private boolean isClosed() {
+    lock.lock();
+    try {
+      return closed || failure != null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void checkFailure() throws SVNException {
+    if (failure instanceof SVNException) {
+      throw (SVNException) failure;
+    }
+    if (failure != null) {
+      throw new SVNException(SVNErrorMessage.create(SVNErrorCode.UNKNOWN, "Unable to compare changed files: {0}", failure.getMessage()), failure);
+    }
+  }
+
+  private static class CompareThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "svn-diff-compare-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -19,9 +19,9 @@
  */
 package org.sonar.plugins.scm.svn;
 
-import java.io.File;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 import javax.annotation.CheckForNull;
 import org.sonar.api.scanner.ScannerSide;
@@ -42,9 +42,15 @@ public class FindFork {
   private static final Logger LOG = Loggers.get(FindFork.class);
 
   private final SvnConfiguration configuration;
+  private final RevisionLog revisionLog;
 
-  public FindFork(SvnConfiguration configuration) {
+  public FindFork(SvnConfiguration configuration, RevisionLog revisionLog) {
     this.configuration = configuration;
+    this.revisionLog = revisionLog;
+  }
+
+  public FindFork(SvnConfiguration configuration) {
+    this(configuration, new RevisionLog());
   }
 
   @CheckForNull
@@ -64,11 +70,10 @@ public class FindFork {
     String svnRefBranch = "/" + referenceBranch;
 
     SVNLogEntryHolder handler = new SVNLogEntryHolder();
-    SVNRevision endRevision = SVNRevision.create(1);
-    SVNRevision startRevision = SVNRevision.create(revision.getNumber());
+    List<SVNLogEntry> entries = revisionLog.history(clientManager, location.toFile(), revision.getNumber());
 
     do {
-      clientManager.getLogClient().doLog(new File[] {location.toFile()}, startRevision, endRevision, true, true, -1, handler);
+      entries.forEach(handler::handleLogEntry);
       SVNLogEntry lastEntry = handler.getLastEntry();
       Optional<SVNLogEntryPath> copyFromReference = lastEntry.getChangedPaths().values().stream()
         .filter(e -> e.getCopyPath() != null && e.getCopyPath().equals(svnRefBranch))
@@ -90,12 +95,16 @@ public class FindFork {
       }
 
       // TODO Looks like a revision can have multiple changed paths. Should we iterate through all of them?
-      startRevision = SVNRevision.create(firstChangedPath.getCopyRevision());
+      entries = revisionLog.history(clientManager, location.toFile(), firstChangedPath.getCopyRevision());
     } while (true);
 
   }
 
   private SVNRevision getSvnRevision(Path location, SVNClientManager clientManager) throws SVNException {
+    WorkingCopyDb.Node node = WorkingCopyDb.node(location.toFile());
+    if (node != null && node.revision() >= 0) {
+      return SVNRevision.create(node.revision());
+    }
     SVNStatus svnStatus = clientManager.getStatusClient().doStatus(location.toFile(), false);
     return svnStatus.getRevision();
   }
@@ -0,0 +1,184 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only set of line numbers, stored as sorted and disjoint ranges of consecutive lines.
+ * Lines are added in increasing order when reading a diff, which only extends the last range or appends one.
+ */
+class LineRanges extends AbstractSet<Integer> {
+
+  /**
+   * Pairs of first and last line of each range
+   */
+  private int[] ranges = new int[4];
+  private int rangeCount;
+  private int size;
+
+  void addLine(int line) {
+    int last = 2 * (rangeCount - 1);
+    if (rangeCount > 0 && line > ranges[last + 1]) {
+      if (line == ranges[last + 1] + 1) {
+        ranges[last + 1] = line;
+        size++;
+      } else {
+        insertRange(rangeCount, line);
+      }
+      return;
+    }
+    if (rangeCount == 0) {
+      insertRange(0, line);
+      return;
+    }
+    int index = rangeIndex(line);
+    if (index >= 0) {
+      return;
+    }
+    insert(-index - 1, line);
+  }
+
+  void addLines(int first, int last) {
+    if (rangeCount == 0 || first > ranges[2 * rangeCount - 1] + 1) {
+      if (2 * (rangeCount + 1) > ranges.length) {
+        ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+      }
+      ranges[2 * rangeCount] = first;
+      ranges[2 * rangeCount + 1] = last;
+      rangeCount++;
+      size += last - first + 1;
+      return;
+    }
+    for (int line = first; line <= last; line++) {
+      addLine(line);
+    }
+  }
+
+  /**
+   * @return this set, with the lines of the other one
+   */
+  LineRanges union(LineRanges other) {
+    for (int i = 0; i < other.rangeCount; i++) {
+      addLines(other.ranges[2 * i], other.ranges[2 * i + 1]);
+    }
+    return this;
+  }
+
+  /**
+   * @param index of the first range starting after the line
+   */
+  private void insert(int index, int line) {
+    boolean extendsPrevious = index > 0 && ranges[2 * index - 1] + 1 == line;
+    boolean extendsNext = index < rangeCount && ranges[2 * index] - 1 == line;
+    if (extendsPrevious && extendsNext) {
+      // merge both ranges
+      ranges[2 * index - 1] = ranges[2 * index + 1];
+      System.arraycopy(ranges, 2 * index + 2, ranges, 2 * index, 2 * (rangeCount - index - 1));
+      rangeCount--;
+      size++;
+    } else if (extendsPrevious) {
+      ranges[2 * index - 1] = line;
+      size++;
+    } else if (extendsNext) {
+      ranges[2 * index] = line;
+      size++;
+    } else {
+      insertRange(index, line);
+    }
+  }
+
+  private void insertRange(int index, int line) {
+    if (2 * (rangeCount + 1) > ranges.length) {
+      ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+    }
+    System.arraycopy(ranges, 2 * index, ranges, 2 * index + 2, 2 * (rangeCount - index));
+    ranges[2 * index] = line;
+    ranges[2 * index + 1] = line;
+    rangeCount++;
+    size++;
+  }
+
+  /**
+   * @return index of the range containing the line, or (-(index of the first range starting after the line) - 1)
+   */
+  private int rangeIndex(int line) {
+    int low = 0;
+    int high = rangeCount - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (ranges[2 * middle + 1] < line) {
+        low = middle + 1;
+      } else if (ranges[2 * middle] > line) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  int rangeCount() {
+    return rangeCount;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof Integer && rangeIndex((Integer) o) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Iterator<Integer> iterator() {
+    return new Iterator<Integer>() {
+      private int range;
+      private int next = rangeCount > 0 ? ranges[0] : 0;
+
+      @Override
+      public boolean hasNext() {
+        return range < rangeCount;
+      }
+
+      @Override
+      public Integer next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        int line = next;
+        if (line == ranges[2 * range + 1]) {
+          range++;
+          if (range < rangeCount) {
+            next = ranges[2 * range];
+          }
+        } else {
+          next++;
+        }
+        return line;
+      }
+    };
+  }
+}
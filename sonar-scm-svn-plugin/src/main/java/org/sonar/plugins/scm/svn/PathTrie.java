@@ -0,0 +1,305 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * Set of repository paths, such as "/branches/b1/src/A.java", stored as a tree of path segments.
+ * Directories shared by many paths are stored once, and equal segment names share the same string.
+ * Paths are looked up segment by segment in the given string, without allocation, and only added
+ * paths allocate the names of their new segments.
+ */
+class PathTrie {
+
+  private final Map<String, String> names;
+  private final Node root = new Node("");
+  private int size;
+
+  PathTrie() {
+    this(new HashMap<>());
+  }
+
+  /**
+   * Tries sharing segment names, usually those of the same branch
+   */
+  PathTrie(PathTrie sharingNames) {
+    this(sharingNames.names);
+  }
+
+  private PathTrie(Map<String, String> names) {
+    this.names = names;
+  }
+
+  /**
+   * @return false if the path was already in the set
+   */
+  boolean add(String path) {
+    Node node = root;
+    int start = 0;
+    while ((start = nextStart(path, start)) < path.length()) {
+      int end = segmentEnd(path, start);
+      Node child = node.child(path, start, end);
+      if (child == null) {
+        child = node.add(new Node(names.computeIfAbsent(path.substring(start, end), s -> s)));
+      }
+      node = child;
+      start = end;
+    }
+    return mark(node);
+  }
+
+  boolean contains(String path) {
+    Node node = find(path);
+    return node != null && node.member;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Adds the paths of another set, except those in a third one
+   */
+  void addAll(PathTrie other, PathTrie excluded) {
+    addAll(root, other.root, excluded.root);
+  }
+
+  void addAll(PathTrie other) {
+    addAll(root, other.root, null);
+  }
+
+  private void addAll(Node into, Node from, @Nullable Node excluded) {
+    if (from.member && (excluded == null || !excluded.member)) {
+      mark(into);
+    }
+    for (Node child : from.children()) {
+      Node target = into.child(child.name, 0, child.name.length());
+      if (target == null) {
+        target = into.add(new Node(names.computeIfAbsent(child.name, s -> s)));
+      }
+      addAll(target, child, excluded != null ? excluded.child(child.name, 0, child.name.length()) : null);
+    }
+  }
+
+  /**
+   * Calls the action with each path of the set, relative to a directory. Paths outside of the directory start with "../".
+   */
+  void forEachRelative(String directory, Consumer<String> action) {
+    List<String> base = new ArrayList<>();
+    int start = 0;
+    while ((start = nextStart(directory, start)) < directory.length()) {
+      int end = segmentEnd(directory, start);
+      base.add(directory.substring(start, end));
+      start = end;
+    }
+    forEachRelative(root, base, new ArrayList<>(), 0, action);
+  }
+
+  /**
+   * @param common number of leading segments of the current path equal to those of the base directory
+   */
+  private static void forEachRelative(Node node, List<String> base, List<String> segments, int common, Consumer<String> action) {
+    if (node.member) {
+      StringBuilder relative = new StringBuilder();
+      for (int i = common; i < base.size(); i++) {
+        relative.append(relative.length() > 0 ? "/.." : "..");
+      }
+      for (int i = common; i < segments.size(); i++) {
+        if (relative.length() > 0) {
+          relative.append('/');
+        }
+        relative.append(segments.get(i));
+      }
+      action.accept(relative.toString());
+    }
+    for (Node child : node.children()) {
+      int depth = segments.size();
+      boolean sameAsBase = common == depth && depth < base.size() && base.get(depth).equals(child.name);
+      segments.add(child.name);
+      forEachRelative(child, base, segments, sameAsBase ? (common + 1) : common, action);
+      segments.remove(depth);
+    }
+  }
+
+  /**
+   * Calls the action with each path of the set
+   */
+  void forEach(Consumer<String> action) {
+    forEachRelative("/", path -> action.accept("/" + path));
+  }
+
+  /**
+   * Writes the tree depth first, each node as its name, whether it is a path of the set and its number of children
+   */
+  void write(DataOutput out) throws IOException {
+    write(root, out);
+  }
+
+  private static void write(Node node, DataOutput out) throws IOException {
+    out.writeUTF(node.name);
+    out.writeBoolean(node.member);
+    List<Node> children = node.children();
+    out.writeInt(children.size());
+    for (Node child : children) {
+      write(child, out);
+    }
+  }
+
+  void read(DataInput in) throws IOException {
+    in.readUTF();
+    read(root, in);
+  }
+
+  private void read(Node node, DataInput in) throws IOException {
+    if (in.readBoolean()) {
+      mark(node);
+    }
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      String name = in.readUTF();
+      if (name.isEmpty() || name.indexOf('/') >= 0 || node.child(name, 0, name.length()) != null) {
+        throw new IOException("Invalid path segment");
+      }
+      read(node.add(new Node(names.computeIfAbsent(name, s -> s))), in);
+    }
+  }
+
+  private boolean mark(Node node) {
+    if (node.member) {
+      return false;
+    }
+    node.member = true;
+    size++;
+    return true;
+  }
+
+  @CheckForNull
+  private Node find(String path) {
+    Node node = root;
+    int start = 0;
+    while (node != null && (start = nextStart(path, start)) < path.length()) {
+      int end = segmentEnd(path, start);
+      node = node.child(path, start, end);
+      start = end;
+    }
+    return node;
+  }
+
+  private static int nextStart(String path, int from) {
+    int start = from;
+    while (start < path.length() && path.charAt(start) == '/') {
+      start++;
+    }
+    return start;
+  }
+
+  private static int segmentEnd(String path, int start) {
+    int end = path.indexOf('/', start);
+    return end < 0 ? path.length() : end;
+  }
+
+  /**
+   * Children are kept in an open addressing hash table, hashed like the string of their name
+   */
+  private static class Node {
+    private final String name;
+    private boolean member;
+    private Node[] table;
+    private int count;
+
+    Node(String name) {
+      this.name = name;
+    }
+
+    @CheckForNull
+    Node child(String path, int start, int end) {
+      if (table == null) {
+        return null;
+      }
+      int length = end - start;
+      int mask = table.length - 1;
+      for (int i = hash(path, start, end) & mask;; i = (i + 1) & mask) {
+        Node child = table[i];
+        if (child == null) {
+          return null;
+        }
+        if (child.name.length() == length && path.regionMatches(start, child.name, 0, length)) {
+          return child;
+        }
+      }
+    }
+
+    Node add(Node child) {
+      if (table == null) {
+        table = new Node[2];
+      } else if (2 * (count + 1) > table.length) {
+        Node[] previous = table;
+        table = new Node[previous.length * 2];
+        for (Node node : previous) {
+          if (node != null) {
+            insert(node);
+          }
+        }
+      }
+      insert(child);
+      count++;
+      return child;
+    }
+
+    private void insert(Node child) {
+      int mask = table.length - 1;
+      int i = child.name.hashCode() & mask;
+      while (table[i] != null) {
+        i = (i + 1) & mask;
+      }
+      table[i] = child;
+    }
+
+    List<Node> children() {
+      List<Node> children = new ArrayList<>(count);
+      if (table != null) {
+        for (Node child : table) {
+          if (child != null) {
+            children.add(child);
+          }
+        }
+      }
+      return children;
+    }
+
+    private static int hash(String path, int start, int end) {
+      int h = 0;
+      for (int i = start; i < end; i++) {
+        h = 31 * h + path.charAt(i);
+      }
+      return h;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.sonar.api.scanner.ScannerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+import org.tmatesoft.svn.core.wc.SVNRevision;
+
+/**
+ * Log entries of the working copy, with their changed paths, kept for the whole analysis.
+ * Changed files, changed lines and fork detection all walk the history of the project directory down to its copy point,
+ * which is fetched once. A history from an older revision is served from memory when it is part of a known history,
+ * and only the revisions above a known history are fetched otherwise.
+ */
+@ScannerSide
+public class RevisionLog {
+
+  private static final Logger LOG = Loggers.get(RevisionLog.class);
+  private static final long BASE = -1;
+
+  private final Map<String, List<History>> histories = new HashMap<>();
+  private final Map<String, Long> copyRevisions = new HashMap<>();
+
+  /**
+   * Entries changing the working copy location, from its base revision down to its copy point, newest first
+   */
+  public synchronized List<SVNLogEntry> history(SVNClientManager clientManager, File location) throws SVNException {
+    WorkingCopyDb.Node node = WorkingCopyDb.node(location);
+    if (node != null && node.revision() >= 0) {
+      return history(clientManager, location, node.revision());
+    }
+    List<History> known = histories.computeIfAbsent(location.getAbsolutePath(), k -> new ArrayList<>());
+    for (History history : known) {
+      if (history.start == BASE) {
+        LOG.debug("Log of {} from base revision served from memory", location);
+        return history.entries();
+      }
+    }
+    History history = new History(BASE, fetch(clientManager, location, null, null));
+    known.add(history);
+    return history.entries();
+  }
+
+  /**
+   * Entries changing the working copy location, traced back to the given revision, from this revision down to
+   * the copy point, newest first
+   */
+  public synchronized List<SVNLogEntry> history(SVNClientManager clientManager, File location, long startRevision) throws SVNException {
+    List<History> known = histories.computeIfAbsent(location.getAbsolutePath(), k -> new ArrayList<>());
+    History below = null;
+    for (History history : known) {
+      if (history.covers(startRevision)) {
+        LOG.debug("Log of {} from revision {} served from memory", location, startRevision);
+        return history.entriesFrom(startRevision);
+      }
+      if (history.isBelow(startRevision) && (below == null || history.top() > below.top())) {
+        below = history;
+      }
+    }
+    NavigableMap<Long, SVNLogEntry> entries;
+    if (below == null) {
+      entries = fetch(clientManager, location, SVNRevision.create(startRevision), SVNRevision.create(1));
+    } else {
+      entries = fetch(clientManager, location, SVNRevision.create(startRevision), SVNRevision.create(below.top() + 1));
+      if (entries.isEmpty() || !startsHistory(entries.firstEntry().getValue())) {
+        LOG.debug("Log of {} below revision {} served from memory", location, below.top() + 1);
+        entries.putAll(below.entries);
+      } else {
+        entries = fetch(clientManager, location, SVNRevision.create(startRevision), SVNRevision.create(1));
+      }
+    }
+    History history = new History(startRevision, entries);
+    known.add(history);
+    return history.entries();
+  }
+
+  /**
+   * Entries changing the working copy location, traced back to the start revision, down to the end revision
+   * or the copy point, newest first
+   */
+  public synchronized List<SVNLogEntry> history(SVNClientManager clientManager, File location, long startRevision, long endRevision)
+    throws SVNException {
+    for (History history : histories.getOrDefault(location.getAbsolutePath(), Collections.emptyList())) {
+      if (history.covers(startRevision) && history.entries.firstKey() <= endRevision) {
+        LOG.debug("Log of {} from revision {} to {} served from memory", location, startRevision, endRevision);
+        return Collections.unmodifiableList(new ArrayList<>(history.entries.subMap(endRevision, true, startRevision, true).descendingMap().values()));
+      }
+    }
+    NavigableMap<Long, SVNLogEntry> entries = fetch(clientManager, location, SVNRevision.create(startRevision), SVNRevision.create(endRevision));
+    return Collections.unmodifiableList(new ArrayList<>(entries.descendingMap().values()));
+  }
+
+  /**
+   * Oldest revision of the history of the working copy location from the given revision, which is its copy point, 0 if unknown.
+   * Served from a known history, or fetched with a single log request of the oldest revision, without changed paths.
+   */
+  public synchronized long copyRevision(SVNClientManager clientManager, File location, long startRevision) throws SVNException {
+    for (History history : histories.getOrDefault(location.getAbsolutePath(), Collections.emptyList())) {
+      if (history.covers(startRevision)) {
+        return history.entries.firstKey();
+      }
+    }
+    String key = location.getAbsolutePath() + '@' + startRevision;
+    Long known = copyRevisions.get(key);
+    if (known != null) {
+      return known;
+    }
+    long[] oldest = {0};
+    clientManager.getLogClient().doLog(new File[] {location}, SVNRevision.create(0), SVNRevision.create(startRevision), true, false, 1,
+      entry -> oldest[0] = entry.getRevision());
+    LOG.debug("Copy point of {} at revision {} is revision {}", location, startRevision, oldest[0]);
+    copyRevisions.put(key, oldest[0]);
+    return oldest[0];
+  }
+
+  private static NavigableMap<Long, SVNLogEntry> fetch(SVNClientManager clientManager, File location, SVNRevision start, SVNRevision end)
+    throws SVNException {
+    NavigableMap<Long, SVNLogEntry> entries = new TreeMap<>();
+    clientManager.getLogClient().doLog(new File[] {location}, start, end, true, true, 0, entry -> entries.put(entry.getRevision(), entry));
+    LOG.debug("Fetched {} log entries of {} from revision {} to {}", entries.size(), location, start != null ? start : "base",
+      end != null ? end : 0);
+    return entries;
+  }
+
+  /**
+   * The log of a location stops on copy at the revision adding it. Any addition in the oldest revision of a range may be this one,
+   * in which case the history below does not belong to the same location.
+   */
+  private static boolean startsHistory(SVNLogEntry entry) {
+    return entry.getChangedPaths().values().stream()
+      .anyMatch(p -> p.getType() == SVNLogEntryPath.TYPE_ADDED || p.getType() == SVNLogEntryPath.TYPE_REPLACED);
+  }
+
+  /**
+   * Entries from a start revision down to the copy point, by revision
+   */
+  private static class History {
+    private final long start;
+    private final NavigableMap<Long, SVNLogEntry> entries;
+
+    History(long start, NavigableMap<Long, SVNLogEntry> entries) {
+      this.start = start;
+      this.entries = entries;
+    }
+
+    /**
+     * Highest revision known to be covered by this history
+     */
+    long top() {
+      return start == BASE ? entries.lastKey() : start;
+    }
+
+    boolean covers(long revision) {
+      return !entries.isEmpty() && entries.firstKey() <= revision && revision <= top();
+    }
+
+    boolean isBelow(long revision) {
+      return !entries.isEmpty() && top() < revision;
+    }
+
+    List<SVNLogEntry> entries() {
+      return Collections.unmodifiableList(new ArrayList<>(entries.descendingMap().values()));
+    }
+
+    List<SVNLogEntry> entriesFrom(long revision) {
+      return Collections.unmodifiableList(new ArrayList<>(entries.headMap(revision, true).descendingMap().values()));
+    }
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.tmatesoft.svn.core.SVNDepth;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.util.SVNURLUtil;
+import org.tmatesoft.svn.core.internal.wc.SVNFileUtil;
+import org.tmatesoft.svn.core.internal.wc.admin.SVNEntry;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+import org.tmatesoft.svn.core.wc.SVNRevision;
+import org.tmatesoft.svn.core.wc.SVNStatus;
+import org.tmatesoft.svn.core.wc.SVNStatusType;
+
+/**
+ * Status of all the files of a working copy, collected at once. Working copies in format 1.7 or later are read
+ * directly from their database, older ones by a single recursive walk.
+ * Files which are not part of the snapshot (not under its root, ignored, in an unversioned directory, possibly modified...)
+ * need a status of their own.
+ */
+class StatusSnapshot {
+
+  private static final Logger LOG = Loggers.get(StatusSnapshot.class);
+
+  private final Map<Path, FileStatus> statuses;
+
+  StatusSnapshot(Map<Path, FileStatus> statuses) {
+    this.statuses = statuses;
+  }
+
+  static StatusSnapshot empty() {
+    return new StatusSnapshot(new HashMap<>());
+  }
+
+  static StatusSnapshot take(SVNClientManager clientManager, File root) throws SVNException {
+    long start = System.currentTimeMillis();
+    WorkingCopyDb db = WorkingCopyDb.load(root, true);
+    if (db != null) {
+      Map<Path, FileStatus> statuses = new HashMap<>();
+      for (WorkingCopyDb.Node node : db.nodes()) {
+        // files with a size or timestamp different from the recorded ones may only have been touched, SVN will tell
+        if (node.isFile() && node.isPristine() && node.hasRecordedSizeAndTimestamp()) {
+          statuses.put(node.path(), FileStatus.of(node));
+        }
+      }
+      LOG.debug("Status of {} files read from the working copy database in {} ms", statuses.size(), System.currentTimeMillis() - start);
+      return new StatusSnapshot(statuses);
+    }
+
+    Map<Path, FileStatus> statuses = new HashMap<>();
+    try {
+      clientManager.getStatusClient().doStatus(root, SVNRevision.HEAD, SVNDepth.INFINITY, false, true, false, false,
+        status -> statuses.put(key(status.getFile()), FileStatus.of(status)), null);
+    } catch (SVNException e) {
+      if (SVNErrorCode.WC_NOT_WORKING_COPY.equals(e.getErrorMessage().getErrorCode())
+        || SVNErrorCode.WC_PATH_NOT_FOUND.equals(e.getErrorMessage().getErrorCode())) {
+        LOG.debug("{} is not a working copy, no status snapshot", root);
+        return empty();
+      }
+      throw e;
+    }
+    LOG.debug("Status of {} files collected in {} ms", statuses.size(), System.currentTimeMillis() - start);
+    return new StatusSnapshot(statuses);
+  }
+
+  @CheckForNull
+  FileStatus get(File file) {
+    return statuses.get(key(file));
+  }
+
+  int size() {
+    return statuses.size();
+  }
+
+  private static Path key(File file) {
+    return file.toPath().toAbsolutePath().normalize();
+  }
+
+  /**
+   * What blame needs to know about a file of the working copy
+   */
+  static class FileStatus {
+    private final boolean unmodified;
+    private final String repositoryRoot;
+    private final String repositoryUuid;
+    private final String repositoryPath;
+    private final long revision;
+    private final long committedRevision;
+    private final String checksum;
+
+    FileStatus(boolean unmodified, @Nullable String repositoryRoot, @Nullable String repositoryUuid, @Nullable String repositoryPath,
+      long revision, long committedRevision, @Nullable String checksum) {
+      this.unmodified = unmodified;
+      this.repositoryRoot = repositoryRoot;
+      this.repositoryUuid = repositoryUuid;
+      this.repositoryPath = repositoryPath;
+      this.revision = revision;
+      this.committedRevision = committedRevision;
+      this.checksum = checksum;
+    }
+
+    static FileStatus of(WorkingCopyDb.Node node) {
+      return new FileStatus(true, node.repositoryRoot(), node.repositoryUuid(), node.repositoryPath(), node.revision(), node.changedRevision(),
+        node.checksum());
+    }
+
+    static FileStatus of(SVNStatus status) throws SVNException {
+      SVNURL rootUrl = repositoryRootUrl(status);
+      return new FileStatus(status.getContentsStatus() == SVNStatusType.STATUS_NORMAL, rootUrl != null ? rootUrl.toString() : null,
+        repositoryUuid(status), repositoryPath(status), status.getRevision().getNumber(), status.getCommittedRevision().getNumber(), null);
+    }
+
+    /**
+     * Versioned, without local modification of the content
+     */
+    boolean isUnmodified() {
+      return unmodified;
+    }
+
+    /**
+     * URI-encoded URL of the repository root
+     */
+    @CheckForNull
+    String repositoryRoot() {
+      return repositoryRoot;
+    }
+
+    @CheckForNull
+    String repositoryUuid() {
+      return repositoryUuid;
+    }
+
+    @CheckForNull
+    String repositoryPath() {
+      return repositoryPath;
+    }
+
+    /**
+     * Revision of the file in the working copy, -1 if not known
+     */
+    long revision() {
+      return revision;
+    }
+
+    long committedRevision() {
+      return committedRevision;
+    }
+
+    /**
+     * Checksum identifying the content of the file, computed only when the working copy does not record it
+     */
+    String checksum(File file) throws SVNException {
+      return checksum != null ? checksum : SVNFileUtil.computeChecksum(file);
+    }
+
+    /**
+     * Working copies older than 1.7 only provide the repository UUID and location through their entry
+     */
+    @CheckForNull
+    private static String repositoryUuid(SVNStatus status) {
+      if (status.getRepositoryUUID() != null) {
+        return status.getRepositoryUUID();
+      }
+      SVNEntry entry = status.getEntry();
+      return entry != null ? entry.getUUID() : null;
+    }
+
+    @CheckForNull
+    private static String repositoryPath(SVNStatus status) throws SVNException {
+      if (status.getRepositoryRelativePath() != null) {
+        return status.getRepositoryRelativePath();
+      }
+      SVNURL url = status.getURL();
+      SVNURL rootUrl = repositoryRootUrl(status);
+      if (url == null || rootUrl == null) {
+        return null;
+      }
+      return SVNURLUtil.getRelativeURL(rootUrl, url, false);
+    }
+
+    @CheckForNull
+    private static SVNURL repositoryRootUrl(SVNStatus status) throws SVNException {
+      SVNURL rootUrl = status.getRepositoryRootURL();
+      if (rootUrl == null && status.getEntry() != null) {
+        rootUrl = status.getEntry().getRepositoryRootURL();
+      }
+      return rootUrl;
+    }
+  }
+}
@@ -19,73 +19,273 @@
  */
 package org.sonar.plugins.scm.svn;
 
+import de.regnis.q.sequence.core.QSequenceException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.scm.BlameCommand;
 import org.sonar.api.batch.scm.BlameLine;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
+import org.tmatesoft.svn.core.SVNAuthenticationException;
+import org.tmatesoft.svn.core.SVNCancelException;
 import org.tmatesoft.svn.core.SVNErrorCode;
 import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.io.SVNRepository;
 import org.tmatesoft.svn.core.wc.SVNClientManager;
-import org.tmatesoft.svn.core.wc.SVNDiffOptions;
-import org.tmatesoft.svn.core.wc.SVNLogClient;
-import org.tmatesoft.svn.core.wc.SVNRevision;
 import org.tmatesoft.svn.core.wc.SVNStatus;
 import org.tmatesoft.svn.core.wc.SVNStatusClient;
-import org.tmatesoft.svn.core.wc.SVNStatusType;
 
 import static org.sonar.plugins.scm.svn.SvnPlugin.newSvnClientManager;
 
 public class SvnBlameCommand extends BlameCommand {
 
   private static final Logger LOG = Loggers.get(SvnBlameCommand.class);
+  private static final String BLAME_CACHE_FILENAME = "blame-cache.bin";
+  private static final String INVALID_REVISION = Long.toString(SVNRepository.INVALID_REVISION);
+  private static final Set<SVNErrorCode> OVERLOAD_ERRORS = new HashSet<>(Arrays.asList(SVNErrorCode.RA_DAV_REQUEST_FAILED,
+    SVNErrorCode.RA_DAV_CONN_TIMEOUT, SVNErrorCode.RA_SVN_CONNECTION_CLOSED, SVNErrorCode.RA_SVN_IO_ERROR));
+  private static final int MAX_OVERLOAD_ATTEMPTS = 2;
   private final SvnConfiguration configuration;
+  private final FindFork findFork;
 
-  public SvnBlameCommand(SvnConfiguration configuration) {
+  public SvnBlameCommand(SvnConfiguration configuration, FindFork findFork) {
     this.configuration = configuration;
+    this.findFork = findFork;
+  }
+
+  public SvnBlameCommand(SvnConfiguration configuration) {
+    this(configuration, new FindFork(configuration));
   }
 
   @Override
   public void blame(final BlameInput input, final BlameOutput output) {
     FileSystem fs = input.fileSystem();
     LOG.debug("Working directory: " + fs.baseDir().getAbsolutePath());
-    SVNClientManager clientManager = null;
+    BlameStartRevision startRevision = resolveStartRevision(fs.baseDir());
+    BlameCache cache = loadCache();
+    BlameTimeBudget budget = new BlameTimeBudget(configuration.blameFileTimeout(), configuration.blameTotalTimeout());
+    try {
+      int threads = configuration.blameThreads();
+      Context context = new Context(cache, takeStatusSnapshot(fs.baseDir()), startRevision, budget, threads > 1 ? new BlameConcurrencyLimiter(threads) : null);
+      if (threads > 1) {
+        blameInParallel(input, output, threads, context);
+      } else {
+        blameSequentially(input, output, context);
+      }
+    } finally {
+      saveCache(cache);
+      budget.logSummary();
+    }
+  }
+
+  private BlameSession newBlameSession() {
+    return new BlameSession(newSvnClientManager(configuration), configuration.blameInMemory(), configuration.blameFileTimeout());
+  }
+
+  private void blameSequentially(BlameInput input, BlameOutput output, Context context) {
+    BlameSession session = newBlameSession();
     try {
-      clientManager = newSvnClientManager(configuration);
       for (InputFile inputFile : input.filesToBlame()) {
-        blame(clientManager, inputFile, output);
+        blame(session, inputFile, output, context);
       }
     } finally {
-      if (clientManager != null) {
-        try {
-          clientManager.dispose();
-        } catch (Exception e) {
-          LOG.warn("Unable to dispose SVN ClientManager", e);
+      session.close();
+    }
+  }
+
+  /**
+   * Each worker owns its own {@link BlameSession}, hence its own connection to the repository,
+   * and pulls files from a shared queue until it is empty. The costliest files are queued first.
+   * The first failure stops the other workers and is rethrown as-is, like in sequential mode.
+   */
+  private void blameInParallel(BlameInput input, BlameOutput output, int threads, Context context) {
+    List<InputFile> files = new ArrayList<>();
+    input.filesToBlame().forEach(files::add);
+    int workers = Math.min(threads, files.size());
+    if (workers == 0) {
+      return;
+    }
+    BlameScheduler scheduler = BlameScheduler.estimate(files, context.snapshot, context.cache, context.startRevision.revision());
+    Queue<InputFile> queue = new ConcurrentLinkedQueue<>(scheduler.files());
+    LOG.debug("Blame {} files using {} threads", queue.size(), workers);
+    BlameOutput synchronizedOutput = (file, lines) -> {
+      synchronized (output) {
+        output.blameResult(file, lines);
+      }
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(workers, new BlameThreadFactory());
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < workers; i++) {
+        futures.add(executor.submit(() -> {
+          blameQueue(queue, synchronizedOutput, context, scheduler);
+          return null;
+        }));
+      }
+      waitFor(futures);
+      scheduler.logSummary();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void blameQueue(Queue<InputFile> queue, BlameOutput output, Context context, BlameScheduler scheduler) {
+    BlameSession session = newBlameSession();
+    try {
+      InputFile inputFile;
+      while ((inputFile = queue.poll()) != null) {
+        long start = System.nanoTime();
+        blame(session, inputFile, output, context);
+        scheduler.done(inputFile, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+    } catch (RuntimeException e) {
+      // no need for the other workers to go on
+      queue.clear();
+      throw e;
+    } finally {
+      session.close();
+    }
+  }
+
+  private static void waitFor(List<Future<Void>> futures) {
+    RuntimeException failure = null;
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while executing blame", e);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = asRuntimeException(e.getCause());
         }
       }
     }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private static RuntimeException asRuntimeException(Throwable t) {
+    if (t instanceof RuntimeException) {
+      return (RuntimeException) t;
+    }
+    if (t instanceof Error) {
+      throw (Error) t;
+    }
+    return new IllegalStateException(t);
+  }
+
+  private BlameStartRevision resolveStartRevision(File baseDir) {
+    String value = configuration.blameStartRevision();
+    if (value == null) {
+      return BlameStartRevision.wholeHistory();
+    }
+    SVNClientManager clientManager = null;
+    try {
+      clientManager = newSvnClientManager(configuration);
+      return BlameStartRevision.resolve(value, clientManager, baseDir, findFork);
+    } catch (SVNException e) {
+      LOG.warn("Unable to resolve SVN blame start revision '" + value + "', blame covers the whole history", e);
+      return BlameStartRevision.wholeHistory();
+    } finally {
+      dispose(clientManager);
+    }
+  }
+
+  /**
+   * One recursive status of the base directory is much cheaper than one status per file
+   */
+  private StatusSnapshot takeStatusSnapshot(File baseDir) {
+    SVNClientManager clientManager = null;
+    try {
+      clientManager = newSvnClientManager(configuration);
+      return StatusSnapshot.take(clientManager, baseDir);
+    } catch (SVNException e) {
+      LOG.debug("Unable to collect the status of " + baseDir + ", falling back to one status per file", e);
+      return StatusSnapshot.empty();
+    } finally {
+      dispose(clientManager);
+    }
   }
 
-  private static void blame(SVNClientManager clientManager, InputFile inputFile, BlameOutput output) {
+  @CheckForNull
+  private BlameCache loadCache() {
+    if (!configuration.blameCacheEnabled()) {
+      return null;
+    }
+    return BlameCache.load(configuration.cacheDirectory().resolve(BLAME_CACHE_FILENAME), configuration.blameCacheMaxSize());
+  }
+
+  private static void saveCache(@Nullable BlameCache cache) {
+    if (cache == null) {
+      return;
+    }
+    LOG.info("SVN blame cache: {} hits, {} misses ({} extended from an older revision), {} entries",
+      cache.hits(), cache.misses(), cache.extended(), cache.entries());
+    try {
+      cache.save();
+    } catch (IOException e) {
+      LOG.warn("Unable to save SVN blame cache", e);
+    }
+  }
+
+  private static void dispose(@Nullable SVNClientManager clientManager) {
+    if (clientManager != null) {
+      try {
+        clientManager.dispose();
+      } catch (Exception e) {
+        LOG.warn("Unable to dispose SVN ClientManager", e);
+      }
+    }
+  }
+
+  private static void blame(BlameSession session, InputFile inputFile, BlameOutput output, Context context) {
     String filename = inputFile.relativePath();
 
     LOG.debug("Process file {}", filename);
 
-    AnnotationHandler handler = new AnnotationHandler();
+    List<BlameLine> lines;
     try {
-      if (!checkStatus(clientManager, inputFile)) {
+      StatusSnapshot.FileStatus status = checkStatus(session.clientManager(), inputFile, context.snapshot);
+      if (status == null) {
         return;
       }
-      SVNLogClient logClient = clientManager.getLogClient();
-      logClient.setDiffOptions(new SVNDiffOptions(true, true, true));
-      logClient.doAnnotate(inputFile.file(), SVNRevision.UNDEFINED, SVNRevision.create(1), SVNRevision.BASE, true, true, handler, null);
+      if (context.cache == null || status.repositoryUuid() == null || status.repositoryPath() == null) {
+        lines = context.budget.allows(inputFile) ? annotate(session, inputFile, status, context.startRevision, context).getLines() : null;
+      } else {
+        lines = cachedAnnotate(session, inputFile, status, context);
+      }
+    } catch (SVNCancelException e) {
+      context.budget.timedOut(inputFile);
+      return;
     } catch (SVNException e) {
       throw new IllegalStateException("Error when executing blame for file " + filename, e);
     }
+    if (lines == null) {
+      return;
+    }
 
-    List<BlameLine> lines = handler.getLines();
+    lines = new ArrayList<>(lines);
     if (lines.size() == inputFile.lines() - 1) {
       // SONARPLUGINS-3097 SVN do not report blame on last empty line
       lines.add(lines.get(lines.size() - 1));
@@ -93,26 +293,188 @@ public class SvnBlameCommand extends BlameCommand {
     output.blameResult(inputFile, lines);
   }
 
-  private static boolean checkStatus(SVNClientManager clientManager, InputFile inputFile) throws SVNException {
-    SVNStatusClient statusClient = clientManager.getStatusClient();
+  /**
+   * @return null if the file is not in the cache and the time limit of blame is exceeded
+   */
+  @CheckForNull
+  private static List<BlameLine> cachedAnnotate(BlameSession session, InputFile inputFile, StatusSnapshot.FileStatus status, Context context)
+    throws SVNException {
+    BlameCache cache = context.cache;
+    BlameStartRevision startRevision = context.startRevision;
+    String repositoryUuid = status.repositoryUuid();
+    String repositoryPath = status.repositoryPath();
+    long revision = status.committedRevision();
+    String checksum = status.checksum(inputFile.file());
+    CompactBlame blame = cache.get(repositoryUuid, repositoryPath, startRevision.revision(), revision, checksum);
+    if (blame != null) {
+      return blame.toList();
+    }
+    if (!context.budget.allows(inputFile)) {
+      return null;
+    }
+
+    AnnotationHandler handler = null;
+    BlameCache.Entry previous = cache.previous(repositoryUuid, repositoryPath, startRevision.revision(), revision);
+    if (previous != null) {
+      LOG.debug("Extend blame of file {} from revision {}", inputFile, previous.revision());
+      handler = annotate(session, inputFile, status, new BlameStartRevision(previous.revision() + 1, null), context);
+      blame = extend(previous, handler);
+    }
+    if (blame == null) {
+      handler = annotate(session, inputFile, status, startRevision, context);
+      blame = handler.getBlame();
+    }
+    cache.put(repositoryUuid, repositoryPath, startRevision.revision(), revision, checksum, blame, handler.getLineHashes());
+    return blame.toList();
+  }
+
+  /**
+   * Annotates a file, within the concurrency limit when blaming in parallel
+   */
+  private static AnnotationHandler annotate(BlameSession session, InputFile inputFile, StatusSnapshot.FileStatus status, BlameStartRevision startRevision,
+    Context context) throws SVNException {
+    if (context.limiter == null) {
+      return session.annotate(inputFile.file(), status, startRevision);
+    }
+    return annotate(context.limiter, session, inputFile.file(), status, startRevision);
+  }
+
+  /**
+   * A file failing because the server is overloaded is annotated once more, after the limiter lowered the concurrency
+   */
+  static AnnotationHandler annotate(BlameConcurrencyLimiter limiter, BlameSession session, File file, StatusSnapshot.FileStatus status,
+    BlameStartRevision startRevision) throws SVNException {
+    for (int attempt = 1;; attempt++) {
+      long start = limiter.acquire();
+      AnnotationHandler handler;
+      try {
+        handler = session.annotate(file, status, startRevision);
+      } catch (SVNException e) {
+        boolean overload = isOverload(e);
+        limiter.failed(start, overload);
+        if (!overload || attempt == MAX_OVERLOAD_ATTEMPTS) {
+          throw e;
+        }
+        LOG.debug("Annotate {} again after server error: {}", file, e.getMessage());
+        continue;
+      } catch (RuntimeException e) {
+        limiter.failed(start, false);
+        throw e;
+      }
+      limiter.succeeded(start, session.lastFileRevisions());
+      return handler;
+    }
+  }
+
+  /**
+   * Failed requests and lost connections, such as a throttling proxy answering 503, mean that the server may be overloaded.
+   * Authentication errors and cancellation do not.
+   */
+  static boolean isOverload(SVNException e) {
+    if (e instanceof SVNCancelException || e instanceof SVNAuthenticationException) {
+      return false;
+    }
+    return OVERLOAD_ERRORS.contains(e.getErrorMessage().getErrorCode());
+  }
+
+  /**
+   * Lines unchanged since the revision of the previous blame are reported by SVN with an invalid revision.
+   * They are attributed like the lines of the previous blame they match in a diff of both revisions, made from
+   * the hashes of their lines with the same algorithm as blame, so that identical lines are matched like SVN does.
+   *
+   * @return null if the previous blame is not consistent with the new annotations
+   */
+  @CheckForNull
+  private static CompactBlame extend(BlameCache.Entry previous, AnnotationHandler handler) {
+    List<BlameLine> previousLines = previous.blame().toList();
+    int[] previousHashes = previous.lineHashes();
+    List<BlameLine> lines = handler.getLines();
+    long[] revisions = handler.getRevisions();
+    int[] hashes = handler.getLineHashes();
+
+    int[] matches;
+    try {
+      matches = DeltaAnnotator.matchLines(previousHashes, hashes);
+    } catch (QSequenceException e) {
+      LOG.debug("Unable to match the lines of the previous blame", e);
+      return null;
+    }
+
+    List<BlameLine> result = new ArrayList<>(lines.size());
+    for (int i = 0; i < lines.size(); i++) {
+      if (revisions[i] > previous.revision()) {
+        if (INVALID_REVISION.equals(lines.get(i).revision())) {
+          // merged from a revision older than the previous blame
+          return null;
+        }
+        result.add(lines.get(i));
+        continue;
+      }
+      if (matches[i] < 0) {
+        return null;
+      }
+      result.add(previousLines.get(matches[i]));
+    }
+    return CompactBlame.of(result);
+  }
+
+  @CheckForNull
+  private static StatusSnapshot.FileStatus checkStatus(SVNClientManager clientManager, InputFile inputFile, StatusSnapshot snapshot)
+    throws SVNException {
+    StatusSnapshot.FileStatus status = snapshot.get(inputFile.file());
     try {
-      SVNStatus status = statusClient.doStatus(inputFile.file(), false);
       if (status == null) {
-        LOG.debug("File {} returns no svn state. Skipping it.", inputFile);
-        return false;
+        SVNStatusClient statusClient = clientManager.getStatusClient();
+        SVNStatus svnStatus = statusClient.doStatus(inputFile.file(), false);
+        if (svnStatus == null) {
+          LOG.debug("File {} returns no svn state. Skipping it.", inputFile);
+          return null;
+        }
+        status = StatusSnapshot.FileStatus.of(svnStatus);
       }
-      if (status.getContentsStatus() != SVNStatusType.STATUS_NORMAL) {
+      if (!status.isUnmodified()) {
         LOG.debug("File {} is not versionned or contains local modifications. Skipping it.", inputFile);
-        return false;
+        return null;
       }
+      return status;
     } catch (SVNException e) {
       if (SVNErrorCode.WC_PATH_NOT_FOUND.equals(e.getErrorMessage().getErrorCode())
         || SVNErrorCode.WC_NOT_WORKING_COPY.equals(e.getErrorMessage().getErrorCode())) {
         LOG.debug("File {} is not versionned. Skipping it.", inputFile);
-        return false;
+        return null;
       }
       throw e;
     }
-    return true;
+  }
+
+  /**
+   * State shared by all the files of an analysis
+   */
+  private static class Context {
+    private final BlameCache cache;
+    private final StatusSnapshot snapshot;
+    private final BlameStartRevision startRevision;
+    private final BlameTimeBudget budget;
+    private final BlameConcurrencyLimiter limiter;
+
+    Context(@Nullable BlameCache cache, StatusSnapshot snapshot, BlameStartRevision startRevision, BlameTimeBudget budget,
+      @Nullable BlameConcurrencyLimiter limiter) {
+      this.cache = cache;
+      this.snapshot = snapshot;
+      this.startRevision = startRevision;
+      this.budget = budget;
+      this.limiter = limiter;
+    }
+  }
+
+  private static class BlameThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "svn-blame-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
   }
 }
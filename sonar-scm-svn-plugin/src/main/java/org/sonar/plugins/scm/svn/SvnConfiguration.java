@@ -20,6 +20,8 @@
 package org.sonar.plugins.scm.svn;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
@@ -40,6 +42,28 @@ public class SvnConfiguration {
   public static final String PRIVATE_KEY_PATH_PROP_KEY = "sonar.svn.privateKeyPath";
   public static final String PASSWORD_PROP_KEY = "sonar.svn.password.secured";
   public static final String PASSPHRASE_PROP_KEY = "sonar.svn.passphrase.secured";
+  public static final String BLAME_THREADS_PROP_KEY = "sonar.svn.blame.threads";
+  public static final String BLAME_CACHE_ENABLED_PROP_KEY = "sonar.svn.blame.cache.enabled";
+  public static final String BLAME_CACHE_MAX_SIZE_PROP_KEY = "sonar.svn.blame.cache.maxSize";
+  public static final String CACHE_DIRECTORY_PROP_KEY = "sonar.svn.cache.directory";
+  public static final String BLAME_START_REVISION_PROP_KEY = "sonar.svn.blame.startRevision";
+  public static final String BLAME_ENGINE_PROP_KEY = "sonar.svn.blame.engine";
+  public static final String BLAME_ENGINE_SVNKIT = "svnkit";
+  public static final String BLAME_ENGINE_MEMORY = "memory";
+  public static final String BLAME_FILE_TIMEOUT_PROP_KEY = "sonar.svn.blame.fileTimeout";
+  public static final String BLAME_TOTAL_TIMEOUT_PROP_KEY = "sonar.svn.blame.totalTimeout";
+  public static final String CHANGED_FILES_CACHE_ENABLED_PROP_KEY = "sonar.svn.changedFiles.cache.enabled";
+  public static final String CHANGED_FILES_STRATEGY_PROP_KEY = "sonar.svn.changedFiles.strategy";
+  public static final String CHANGED_FILES_STRATEGY_AUTO = "auto";
+  public static final String CHANGED_FILES_STRATEGY_LOG = "log";
+  public static final String CHANGED_FILES_STRATEGY_SUMMARIZE = "summarize";
+  public static final String CHANGED_LINES_DIFF_PROP_KEY = "sonar.svn.changedLines.diff";
+  public static final String CHANGED_LINES_DIFF_DIRECTORIES = "directories";
+  public static final String CHANGED_LINES_DIFF_FILES = "files";
+  public static final String CHANGED_LINES_THREADS_PROP_KEY = "sonar.svn.changedLines.threads";
+  public static final String CHANGED_LINES_FILE_MAX_SIZE_PROP_KEY = "sonar.svn.changedLines.fileMaxSize";
+  public static final String CHANGED_LINES_TOTAL_MAX_SIZE_PROP_KEY = "sonar.svn.changedLines.totalMaxSize";
+  private static final String USER_HOME_PROP_KEY = "sonar.userHome";
   private final Configuration config;
 
   public SvnConfiguration(Configuration config) {
@@ -83,6 +107,160 @@ public class SvnConfiguration {
         .category(CoreProperties.CATEGORY_SCM)
         .subCategory(CATEGORY_SVN)
         .index(3)
+        .build(),
+      PropertyDefinition.builder(BLAME_THREADS_PROP_KEY)
+        .name("Blame threads")
+        .description("Maximum number of files to blame in parallel. Each thread uses its own connection to the SVN server. "
+          + "Parallelism starts at this number, is reduced when the server fails or slows down, and grows back while the latency of the "
+          + "server stays flat. A file failing because the server is overloaded is blamed once more at the reduced parallelism.")
+        .type(PropertyType.INTEGER)
+        .defaultValue("1")
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_SVN)
+        .index(4)
+        .build(),
+      PropertyDefinition.builder(BLAME_CACHE_ENABLED_PROP_KEY)
+        .name("Blame cache")
+        .description("Keep blame results between analyses, so that files which did not change since the previous analysis "
+          + "are not blamed again")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("true")
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_SVN)
+        .index(5)
+        .build(),
+      PropertyDefinition.builder(BLAME_CACHE_MAX_SIZE_PROP_KEY)
+        .name("Blame cache size")
+        .description("Maximum size of the blame cache, in MB. Least recently used entries are evicted first.")
+        .type(PropertyType.INTEGER)
+        .defaultValue("100")
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_SVN)
+        .index(6)
+        .build(),
+      PropertyDefinition.builder(CACHE_DIRECTORY_PROP_KEY)
+        .name("Cache directory")
+        .description("Directory where data is kept between analyses. Defaults to the 'svn' folder of the SonarQube user home.")
+        .type(PropertyType.STRING)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_SVN)
+        .index(7)
+        .build(),
+      PropertyDefinition.builder(BLAME_START_REVISION_PROP_KEY)
+        .name("Blame start revision")
+        .description("Oldest revision considered by blame: a revision number, a date (yyyy-MM-dd) or 'fork:<branch>' for the revision "
+          + "the analyzed branch was copied from (for example 'fork:trunk'). Lines last changed before are attributed to this revision. "
+          + "By default, the whole history is considered.")
+        .type(PropertyType.STRING)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_SVN)
+        .index(8)
+        .build(),
+      PropertyDefinition.builder(BLAME_ENGINE_PROP_KEY)
+        .name("Blame engine")
+        .description("How file revisions are annotated: 'svnkit' diffs them in temporary files, 'memory' rebuilds them in memory "
+          + "from the deltas sent by the server. Both give the same result.")
+        .type(PropertyType.SINGLE_SELECT_LIST)
+        .options(BLAME_ENGINE_SVNKIT, BLAME_ENGINE_MEMORY)
+        .defaultValue(BLAME_ENGINE_SVNKIT)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_SVN)
+        .index(9)
+        .build(),
+      PropertyDefinition.builder(BLAME_FILE_TIMEOUT_PROP_KEY)
+        .name("Blame timeout of a file")
+        .description("Time allowed to blame a file, in seconds. Files taking longer are reported without SCM data. 0 for no limit.")
+        .type(PropertyType.INTEGER)
+        .defaultValue("0")
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_SVN)
+        .index(10)
+        .build(),
+      PropertyDefinition.builder(BLAME_TOTAL_TIMEOUT_PROP_KEY)
+        .name("Blame timeout")
+        .description("Time allowed to blame all the files, in seconds. Once exceeded, only files found in the blame cache get SCM data. "
+          + "0 for no limit.")
+        .type(PropertyType.INTEGER)
+        .defaultValue("0")
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_SVN)
+        .index(11)
+        .build(),
+      PropertyDefinition.builder(CHANGED_FILES_CACHE_ENABLED_PROP_KEY)
+        .name("Changed files cache")
+        .description("Keep the files changed on branches between analyses, so that only the revisions committed since the previous "
+          + "analysis of a branch are read from the log")
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("true")
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_SVN)
+        .index(12)
+        .build(),
+      PropertyDefinition.builder(CHANGED_FILES_STRATEGY_PROP_KEY)
+        .name("Changed files strategy")
+        .description("How the files changed on a branch are found: 'log' walks the log of the branch since its copy point, "
+          + "'summarize' compares the copy point with the base revision, 'auto' summarizes when the branch has many revisions.")
+        .type(PropertyType.SINGLE_SELECT_LIST)
+        .options(CHANGED_FILES_STRATEGY_AUTO, CHANGED_FILES_STRATEGY_LOG, CHANGED_FILES_STRATEGY_SUMMARIZE)
+        .defaultValue(CHANGED_FILES_STRATEGY_AUTO)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_SVN)
+        .index(13)
+        .build(),
+      PropertyDefinition.builder(CHANGED_LINES_DIFF_PROP_KEY)
+        .name("Changed lines diff")
+        .description("What is diffed to find the lines changed on a branch: 'directories' diffs the directories holding the changed files, "
+          + "'files' diffs only the changed files, grouped by directory.")
+        .type(PropertyType.SINGLE_SELECT_LIST)
+        .options(CHANGED_LINES_DIFF_DIRECTORIES, CHANGED_LINES_DIFF_FILES)
+        .defaultValue(CHANGED_LINES_DIFF_DIRECTORIES)
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_SVN)
+        .index(14)
+        .build(),
+      PropertyDefinition.builder(CHANGED_LINES_THREADS_PROP_KEY)
+        .name("Changed lines threads")
+        .description("Maximum number of directories diffed in parallel when only the changed files are diffed. "
+          + "Each thread uses its own connection to the SVN server.")
+        .type(PropertyType.INTEGER)
+        .defaultValue("4")
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_SVN)
+        .index(15)
+        .build(),
+      PropertyDefinition.builder(CHANGED_LINES_FILE_MAX_SIZE_PROP_KEY)
+        .name("Changed lines file max size")
+        .description("Maximum size of the base and working contents of a file compared to find its changed lines, in MB. "
+          + "All the lines of a larger file are considered changed. 0 for no limit.")
+        .type(PropertyType.INTEGER)
+        .defaultValue("10")
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_SVN)
+        .index(16)
+        .build(),
+      PropertyDefinition.builder(CHANGED_LINES_TOTAL_MAX_SIZE_PROP_KEY)
+        .name("Changed lines total max size")
+        .description("Maximum size of all the contents compared to find changed lines, in MB. "
+          + "All the lines of the files over the limit are considered changed. 0 for no limit.")
+        .type(PropertyType.INTEGER)
+        .defaultValue("500")
+        .onQualifiers(Qualifiers.PROJECT)
+        .category(CoreProperties.CATEGORY_SCM)
+        .subCategory(CATEGORY_SVN)
+        .index(17)
         .build());
   }
 
@@ -114,4 +292,86 @@ public class SvnConfiguration {
     return config.get(PASSPHRASE_PROP_KEY).orElse(null);
   }
 
+  public int blameThreads() {
+    return config.getInt(BLAME_THREADS_PROP_KEY).orElse(1);
+  }
+
+  public boolean blameCacheEnabled() {
+    return config.getBoolean(BLAME_CACHE_ENABLED_PROP_KEY).orElse(true);
+  }
+
+  /**
+   * Maximum size of the blame cache, in bytes
+   */
+  public long blameCacheMaxSize() {
+    return config.getInt(BLAME_CACHE_MAX_SIZE_PROP_KEY).orElse(100) * 1024L * 1024L;
+  }
+
+  @CheckForNull
+  public String blameStartRevision() {
+    return config.get(BLAME_START_REVISION_PROP_KEY).orElse(null);
+  }
+
+  /**
+   * Whether file revisions are annotated in memory instead of through temporary files
+   */
+  public boolean blameInMemory() {
+    return config.get(BLAME_ENGINE_PROP_KEY).map(BLAME_ENGINE_MEMORY::equalsIgnoreCase).orElse(false);
+  }
+
+  /**
+   * Time allowed to blame a file, in milliseconds, 0 for no limit
+   */
+  public long blameFileTimeout() {
+    return config.getInt(BLAME_FILE_TIMEOUT_PROP_KEY).orElse(0) * 1000L;
+  }
+
+  /**
+   * Time allowed to blame all the files, in milliseconds, 0 for no limit
+   */
+  public long blameTotalTimeout() {
+    return config.getInt(BLAME_TOTAL_TIMEOUT_PROP_KEY).orElse(0) * 1000L;
+  }
+
+  public boolean changedFilesCacheEnabled() {
+    return config.getBoolean(CHANGED_FILES_CACHE_ENABLED_PROP_KEY).orElse(true);
+  }
+
+  @CheckForNull
+  public String changedFilesStrategy() {
+    return config.get(CHANGED_FILES_STRATEGY_PROP_KEY).orElse(null);
+  }
+
+  /**
+   * Whether only the changed files are diffed, instead of the directories holding them
+   */
+  public boolean changedLinesDiffFiles() {
+    return config.get(CHANGED_LINES_DIFF_PROP_KEY).map(CHANGED_LINES_DIFF_FILES::equalsIgnoreCase).orElse(false);
+  }
+
+  public int changedLinesThreads() {
+    return config.getInt(CHANGED_LINES_THREADS_PROP_KEY).orElse(4);
+  }
+
+  public long changedLinesFileMaxSize() {
+    return config.getInt(CHANGED_LINES_FILE_MAX_SIZE_PROP_KEY).orElse(10) * 1024L * 1024L;
+  }
+
+  public long changedLinesTotalMaxSize() {
+    return config.getInt(CHANGED_LINES_TOTAL_MAX_SIZE_PROP_KEY).orElse(500) * 1024L * 1024L;
+  }
+
+  /**
+   * The scanner working directory is cleaned at each analysis, so data that must survive
+   * between analyses is kept in the SonarQube user home by default.
+   */
+  public Path cacheDirectory() {
+    Optional<String> directory = config.get(CACHE_DIRECTORY_PROP_KEY);
+    if (directory.isPresent()) {
+      return Paths.get(directory.get());
+    }
+    String userHome = config.get(USER_HOME_PROP_KEY).orElse(Paths.get(System.getProperty("user.home"), ".sonar").toString());
+    return Paths.get(userHome, "svn");
+  }
+
 }
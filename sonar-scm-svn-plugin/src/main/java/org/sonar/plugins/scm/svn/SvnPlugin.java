@@ -52,7 +52,8 @@ public final class SvnPlugin implements Plugin {
     context.addExtensions(SvnScmProvider.class,
       SvnBlameCommand.class,
       SvnConfiguration.class,
-      FindFork.class);
+      FindFork.class,
+      RevisionLog.class);
     context.addExtensions(SvnConfiguration.getProperties());
 
   }
@@ -20,46 +20,65 @@
 package org.sonar.plugins.scm.svn;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import org.sonar.api.batch.scm.BlameCommand;
 import org.sonar.api.batch.scm.ScmProvider;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.tmatesoft.svn.core.SVNDepth;
 import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNLogEntry;
 import org.tmatesoft.svn.core.SVNLogEntryPath;
 import org.tmatesoft.svn.core.SVNNodeKind;
 import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
 import org.tmatesoft.svn.core.wc.SVNClientManager;
 import org.tmatesoft.svn.core.wc.SVNDiffClient;
 import org.tmatesoft.svn.core.wc.SVNInfo;
-import org.tmatesoft.svn.core.wc.SVNLogClient;
 import org.tmatesoft.svn.core.wc.SVNRevision;
+import org.tmatesoft.svn.core.wc.SVNStatusType;
 import org.tmatesoft.svn.core.wc.SVNWCClient;
 
+import static org.sonar.plugins.scm.svn.SvnConfiguration.CHANGED_FILES_STRATEGY_LOG;
 import static org.sonar.plugins.scm.svn.SvnPlugin.newSvnClientManager;
 
 public class SvnScmProvider extends ScmProvider {
 
   private static final Logger LOG = Loggers.get(SvnScmProvider.class);
+  private static final String CHANGED_PATH_INDEX_FILENAME = "changed-paths.bin";
 
   private final SvnConfiguration configuration;
   private final SvnBlameCommand blameCommand;
   private final FindFork findFork;
+  private final RevisionLog revisionLog;
 
-  public SvnScmProvider(SvnConfiguration configuration, SvnBlameCommand blameCommand, FindFork findFork) {
+  public SvnScmProvider(SvnConfiguration configuration, SvnBlameCommand blameCommand, FindFork findFork, RevisionLog revisionLog) {
     this.configuration = configuration;
     this.blameCommand = blameCommand;
     this.findFork = findFork;
+    this.revisionLog = revisionLog;
+  }
+
+  public SvnScmProvider(SvnConfiguration configuration, SvnBlameCommand blameCommand, FindFork findFork) {
+    this(configuration, blameCommand, findFork, new RevisionLog());
   }
 
   @Override
@@ -90,7 +109,10 @@ public class SvnScmProvider extends ScmProvider {
     SVNClientManager clientManager = null;
     try {
       clientManager = newSvnClientManager(configuration);
-      return computeChangedPaths(rootBaseDir, clientManager);
+      ChangedPathIndex index = loadChangedPathIndex();
+      Set<Path> paths = computeChangedPaths(rootBaseDir, clientManager, revisionLog, index, configuration.changedFilesStrategy());
+      saveChangedPathIndex(index);
+      return paths;
     } catch (SVNException e) {
       LOG.warn(e.getMessage());
     } finally {
@@ -106,46 +128,152 @@ public class SvnScmProvider extends ScmProvider {
     return null;
   }
 
-  static Set<Path> computeChangedPaths(Path projectBasedir, SVNClientManager clientManager) throws SVNException {
-    SVNWCClient wcClient = clientManager.getWCClient();
-    SVNInfo svnInfo = wcClient.doInfo(projectBasedir.toFile(), null);
+  static Set<Path> computeChangedPaths(Path projectBasedir, SVNClientManager clientManager, RevisionLog revisionLog,
+    @Nullable ChangedPathIndex index, @Nullable String strategy) throws SVNException {
+    Branch branch = Branch.of(projectBasedir, clientManager);
+    Set<Path> paths = new HashSet<>();
+    branchState(projectBasedir, clientManager, revisionLog, index, strategy, branch).changed()
+      .forEachRelative(branch.repositoryPath(), path -> paths.add(projectBasedir.resolve(path)));
+    return paths;
+  }
 
-    // SVN path of the repo root, for example: /C:/Users/JANOSG~1/AppData/Local/Temp/x/y
-    Path svnRootPath = toPath(svnInfo.getRepositoryRootURL());
+  /**
+   * Files changed on the branch since its copy point, see {@link ChangedFilesPlanner}.
+   * When the index knows the branch at an older revision, only the newer log entries are read and applied,
+   * unless the branch was created again since.
+   */
+  private static ChangedPathIndex.Entry branchState(Path projectBasedir, SVNClientManager clientManager, RevisionLog revisionLog,
+    @Nullable ChangedPathIndex index, @Nullable String strategy, Branch branch) throws SVNException {
+    File location = projectBasedir.toFile();
+    if (branch.revision < 0) {
+      return fromLog(branch, revisionLog.history(clientManager, location));
+    }
+    ChangedPathIndex.Entry stored = index != null ? index.get(branch.url.toString()) : null;
+    if (stored != null && stored.revision() == branch.revision) {
+      LOG.debug("Files changed on {} found in cache at revision {}", branch.url, branch.revision);
+      return stored;
+    }
+    ChangedPathIndex.Entry state = null;
+    if (stored != null && stored.revision() < branch.revision
+      && ChangedFilesPlanner.choose(strategy, branch.revision - stored.revision()) == ChangedFilesPlanner.Strategy.LOG) {
+      List<SVNLogEntry> newer = revisionLog.history(clientManager, location, branch.revision, stored.revision() + 1);
+      if (newer.isEmpty() || !isCreated(newer.get(newer.size() - 1), branch.inRepoProjectPath)) {
+        LOG.debug("Files changed on {} found in cache at revision {}, {} newer log entries applied", branch.url, stored.revision(), newer.size());
+        logScope(branch, newer);
+        state = stored.apply(newer, branch.repositoryPath(), branch.revision);
+      }
+    }
+    if (state == null) {
+      // the copy point is not needed to walk the log
+      long copyRevision = CHANGED_FILES_STRATEGY_LOG.equalsIgnoreCase(strategy) ? -1 : revisionLog.copyRevision(clientManager, location,
+        branch.revision);
+      if (ChangedFilesPlanner.choose(strategy, copyRevision < 0 ? -1 : (branch.revision - copyRevision)) == ChangedFilesPlanner.Strategy.SUMMARIZE) {
+        state = summarize(clientManager, location, branch, copyRevision);
+      } else {
+        state = fromLog(branch, revisionLog.history(clientManager, location));
+      }
+    }
+    if (index != null) {
+      index.put(branch.url.toString(), state);
+    }
+    return state;
+  }
 
-    // the svn root path may be "" for urls like http://svnserver/
-    // -> set it to "/" to avoid crashing when using Path.relativize later
-    if (svnRootPath.equals(Paths.get(""))) {
-      svnRootPath = Paths.get("/");
+  /**
+   * Copy point of the branch, without reading the files changed on it: from the index when it knows the branch at its base
+   * revision, otherwise with a single log request of the oldest revision, see {@link RevisionLog#copyRevision}
+   */
+  private static long copyRevision(Path projectBasedir, SVNClientManager clientManager, RevisionLog revisionLog,
+    @Nullable ChangedPathIndex index, Branch branch) throws SVNException {
+    ChangedPathIndex.Entry stored = index != null ? index.get(branch.url.toString()) : null;
+    if (stored != null && stored.revision() == branch.revision) {
+      return stored.copyRevision();
+    }
+    if (branch.revision < 0) {
+      return branchState(projectBasedir, clientManager, revisionLog, null, null, branch).copyRevision();
     }
+    return revisionLog.copyRevision(clientManager, projectBasedir.toFile(), branch.revision);
+  }
 
-    // SVN path of projectBasedir, for example: /C:/Users/JANOSG~1/AppData/Local/Temp/x/y/branches/b1
-    Path svnProjectPath = toPath(svnInfo.getURL());
-    // path of projectBasedir, as "absolute path within the SVN repo", for example: /branches/b1
-    Path inRepoProjectPath = Paths.get("/").resolve(svnRootPath.relativize(svnProjectPath));
+  private static ChangedPathIndex.Entry fromLog(Branch branch, List<SVNLogEntry> logEntries) {
+    logScope(branch, logEntries);
+    return ChangedPathIndex.Entry.of(logEntries, branch.repositoryPath(), branch.revision);
+  }
 
-    // We inspect "svn log" from latest revision until copy-point.
-    // The same path may appear in multiple commits, the ordering of changes and removals is important.
-    Set<Path> paths = new HashSet<>();
-    Set<Path> removed = new HashSet<>();
-
-    SVNLogClient svnLogClient = clientManager.getLogClient();
-    svnLogClient.doLog(new File[] {projectBasedir.toFile()}, null, null, null, true, true, 0, svnLogEntry -> {
-      svnLogEntry.getChangedPaths().values().forEach(entry -> {
-        if (entry.getKind().equals(SVNNodeKind.FILE)) {
-          Path path = projectBasedir.resolve(inRepoProjectPath.relativize(Paths.get(entry.getPath())));
-          if (isModified(entry)) {
-            // Skip if the path is removed in a more recent commit
-            if (!removed.contains(path)) {
-              paths.add(path);
-            }
-          } else if (entry.getType() == SVNLogEntryPath.TYPE_DELETED) {
-            removed.add(path);
-          }
+  /**
+   * The log is restricted to the commits changing the project directory, but each entry lists all the paths changed by its commit
+   */
+  private static void logScope(Branch branch, List<SVNLogEntry> logEntries) {
+    if (!LOG.isDebugEnabled()) {
+      return;
+    }
+    String directory = branch.repositoryPath();
+    int transferred = 0;
+    int kept = 0;
+    for (SVNLogEntry logEntry : logEntries) {
+      for (String path : logEntry.getChangedPaths().keySet()) {
+        transferred++;
+        if (SVNPathUtil.isAncestor(directory, path)) {
+          kept++;
         }
-      });
+      }
+    }
+    LOG.debug("Log of {}: {} entries with {} changed paths transferred, {} kept", branch.url, logEntries.size(), transferred, kept);
+  }
+
+  /**
+   * Files changed on the branch, from a diff between its copy point and its base revision summarized by the server
+   */
+  private static ChangedPathIndex.Entry summarize(SVNClientManager clientManager, File location, Branch branch, long copyRevision)
+    throws SVNException {
+    PathTrie changed = new PathTrie();
+    PathTrie removed = new PathTrie(changed);
+    String branchPath = branch.repositoryPath();
+    String prefix = branchPath.endsWith("/") ? branchPath : (branchPath + '/');
+    SVNRevision base = SVNRevision.create(branch.revision);
+    clientManager.getDiffClient().doDiffStatus(location, SVNRevision.create(copyRevision), base, base, SVNDepth.INFINITY, false, status -> {
+      // paths are relative to the parent directory, URLs are not
+      String relativePath = status.getURL() != null ? SVNPathUtil.getPathAsChild(branch.url.getPath(), status.getURL().getPath()) : null;
+      if (status.getKind() != SVNNodeKind.FILE || relativePath == null) {
+        return;
+      }
+      SVNStatusType type = status.getModificationType();
+      if (type == SVNStatusType.STATUS_DELETED) {
+        removed.add(prefix + relativePath);
+      } else if (type == SVNStatusType.STATUS_ADDED || type == SVNStatusType.STATUS_MODIFIED || status.isPropertiesModified()) {
+        changed.add(prefix + relativePath);
+      }
     });
-    return paths;
+    LOG.debug("Summarized diff of {} from revision {} to {}: {} changed files", branch.url, copyRevision, branch.revision, changed.size());
+    return new ChangedPathIndex.Entry(copyRevision, branch.revision, changed, removed);
+  }
+
+  /**
+   * Whether the log entry adds or replaces the directory, or one of its parents
+   */
+  private static boolean isCreated(SVNLogEntry logEntry, Path inRepoPath) {
+    return logEntry.getChangedPaths().values().stream()
+      .filter(entry -> entry.getType() == SVNLogEntryPath.TYPE_ADDED || entry.getType() == SVNLogEntryPath.TYPE_REPLACED)
+      .anyMatch(entry -> inRepoPath.startsWith(Paths.get(entry.getPath())));
+  }
+
+  @CheckForNull
+  private ChangedPathIndex loadChangedPathIndex() {
+    if (!configuration.changedFilesCacheEnabled()) {
+      return null;
+    }
+    return ChangedPathIndex.load(configuration.cacheDirectory().resolve(CHANGED_PATH_INDEX_FILENAME));
+  }
+
+  private static void saveChangedPathIndex(@Nullable ChangedPathIndex index) {
+    if (index == null) {
+      return;
+    }
+    try {
+      index.save();
+    } catch (IOException e) {
+      LOG.warn("Unable to save SVN changed files cache", e);
+    }
   }
 
   private static Path toPath(SVNURL svnUrl) {
@@ -159,11 +287,6 @@ public class SvnScmProvider extends ScmProvider {
     return Paths.get(svnUrl.getURIEncodedPath());
   }
 
-  private static boolean isModified(SVNLogEntryPath entry) {
-    return entry.getType() == SVNLogEntryPath.TYPE_ADDED
-      || entry.getType() == SVNLogEntryPath.TYPE_MODIFIED;
-  }
-
   @CheckForNull
   @Override
   public Map<Path, Set<Integer>> branchChangedLines(String targetBranchName, Path rootBaseDir, Set<Path> changedFiles) {
@@ -172,17 +295,21 @@ public class SvnScmProvider extends ScmProvider {
       clientManager = newSvnClientManager(configuration);
 
       // find reference revision number: the copy point
-      SVNLogClient svnLogClient = clientManager.getLogClient();
-      long[] revisionCounter = {0};
-      svnLogClient.doLog(new File[] {rootBaseDir.toFile()}, null, null, null, true, true, 0,
-        svnLogEntry -> revisionCounter[0] = svnLogEntry.getRevision());
+      long startRev = copyRevision(rootBaseDir, clientManager, revisionLog, loadChangedPathIndex(), Branch.of(rootBaseDir, clientManager));
 
-      long startRev = revisionCounter[0];
+      SVNRevision startRevision = SVNRevision.create(startRev);
+      DiffBudget budget = new DiffBudget(configuration.changedLinesFileMaxSize(), configuration.changedLinesTotalMaxSize());
+      if (configuration.changedLinesDiffFiles()) {
+        return new TargetedDiff(rootBaseDir, startRevision, () -> newSvnClientManager(configuration),
+          () -> newChangedLinesComputer(rootBaseDir, changedFiles), configuration.changedLinesThreads(), budget).changedLines(changedFiles);
+      }
 
       SVNDiffClient svnDiffClient = clientManager.getDiffClient();
-      File path = rootBaseDir.toFile();
       ChangedLinesComputer computer = newChangedLinesComputer(rootBaseDir, changedFiles);
-      svnDiffClient.doDiff(path, SVNRevision.create(startRev), path, SVNRevision.WORKING, SVNDepth.INFINITY, false, computer.receiver(), null);
+      List<Path> directories = diffDirectories(rootBaseDir, changedFiles);
+      ChangedLinesDiffGenerator.diff(svnDiffClient, directories.stream().map(Path::toFile).collect(Collectors.toList()), startRevision,
+        SVNDepth.INFINITY, computer, budget);
+      LOG.debug("Diffed {} directories of {} from revision {}: {} bytes", directories.size(), rootBaseDir, startRev, computer.bytes());
       return computer.changedLines();
     } catch (Exception e) {
       LOG.warn("Failed to get changed lines from Subversion", e);
@@ -199,6 +326,36 @@ public class SvnScmProvider extends ScmProvider {
     return null;
   }
 
+  /**
+   * Directories to diff so that all the files are covered: for each top level directory of the project, the deepest
+   * existing directory containing all its files. The project directory itself if one of the files is directly in it.
+   */
+  static List<Path> diffDirectories(Path rootBaseDir, Collection<Path> files) {
+    Map<Path, Path> byTopLevelDirectory = new LinkedHashMap<>();
+    for (Path file : files) {
+      Path directory = file.getParent();
+      if (directory == null || !directory.startsWith(rootBaseDir)) {
+        continue;
+      }
+      while (!directory.equals(rootBaseDir) && !Files.isDirectory(directory)) {
+        directory = directory.getParent();
+      }
+      if (directory.equals(rootBaseDir)) {
+        return Collections.singletonList(rootBaseDir);
+      }
+      byTopLevelDirectory.merge(rootBaseDir.resolve(rootBaseDir.relativize(directory).getName(0)), directory, SvnScmProvider::commonDirectory);
+    }
+    return new ArrayList<>(byTopLevelDirectory.values());
+  }
+
+  private static Path commonDirectory(Path directory, Path other) {
+    Path common = directory;
+    while (!other.startsWith(common)) {
+      common = common.getParent();
+    }
+    return common;
+  }
+
   /**
    * It will override API in 8.4
    */
@@ -213,6 +370,61 @@ public class SvnScmProvider extends ScmProvider {
   }
 
   ChangedLinesComputer newChangedLinesComputer(Path rootBaseDir, Set<Path> changedFiles) {
-    return new ChangedLinesComputer(rootBaseDir, changedFiles);
+    return new ChangedLinesComputer(changedFiles);
+  }
+
+  /**
+   * Location of the project directory in the repository, and its base revision, -1 if unknown
+   */
+  private static class Branch {
+    private final SVNURL url;
+    private final Path inRepoProjectPath;
+    private final long revision;
+
+    private Branch(SVNURL url, Path inRepoProjectPath, long revision) {
+      this.url = url;
+      this.inRepoProjectPath = inRepoProjectPath;
+      this.revision = revision;
+    }
+
+    /**
+     * Path of the project directory in the repository, with slashes
+     */
+    String repositoryPath() {
+      return inRepoProjectPath.toString().replace('\\', '/');
+    }
+
+    static Branch of(Path projectBasedir, SVNClientManager clientManager) throws SVNException {
+      SVNURL rootUrl;
+      SVNURL projectUrl;
+      long revision;
+      WorkingCopyDb.Node node = WorkingCopyDb.node(projectBasedir.toFile());
+      if (node != null && node.repositoryRoot() != null && node.repositoryPath() != null) {
+        rootUrl = SVNURL.parseURIEncoded(node.repositoryRoot());
+        projectUrl = rootUrl.appendPath(node.repositoryPath(), false);
+        revision = node.revision();
+      } else {
+        SVNWCClient wcClient = clientManager.getWCClient();
+        SVNInfo svnInfo = wcClient.doInfo(projectBasedir.toFile(), null);
+        rootUrl = svnInfo.getRepositoryRootURL();
+        projectUrl = svnInfo.getURL();
+        revision = svnInfo.getRevision() != null ? svnInfo.getRevision().getNumber() : -1;
+      }
+
+      // SVN path of the repo root, for example: /C:/Users/JANOSG~1/AppData/Local/Temp/x/y
+      Path svnRootPath = toPath(rootUrl);
+
+      // the svn root path may be "" for urls like http://svnserver/
+      // -> set it to "/" to avoid crashing when using Path.relativize later
+      if (svnRootPath.equals(Paths.get(""))) {
+        svnRootPath = Paths.get("/");
+      }
+
+      // SVN path of projectBasedir, for example: /C:/Users/JANOSG~1/AppData/Local/Temp/x/y/branches/b1
+      Path svnProjectPath = toPath(projectUrl);
+      // path of projectBasedir, as "absolute path within the SVN repo", for example: /branches/b1
+      Path inRepoProjectPath = Paths.get("/").resolve(svnRootPath.relativize(svnProjectPath));
+      return new Branch(projectUrl, inRepoProjectPath, revision);
+    }
   }
 }
@@ -0,0 +1,217 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.tmatesoft.svn.core.SVNDepth;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+import org.tmatesoft.svn.core.wc.SVNDiffClient;
+import org.tmatesoft.svn.core.wc.SVNRevision;
+
+/**
+ * Diffs only the changed files instead of whole directories, so that the diffs of generated or excluded files are not
+ * transferred. Files are grouped by directory, and directories are diffed in parallel, each worker with its own
+ * connection to the repository. A directory is diffed at once, without its subdirectories, when most of its files are
+ * changed, otherwise its changed files are diffed one by one.
+ */
+class TargetedDiff {
+
+  private static final Logger LOG = Loggers.get(TargetedDiff.class);
+
+  private final Path rootBaseDir;
+  private final SVNRevision startRevision;
+  private final Supplier<SVNClientManager> clientManagers;
+  private final Supplier<ChangedLinesComputer> computers;
+  private final int threads;
+  private final DiffBudget budget;
+
+  TargetedDiff(Path rootBaseDir, SVNRevision startRevision, Supplier<SVNClientManager> clientManagers, Supplier<ChangedLinesComputer> computers,
+    int threads, DiffBudget budget) {
+    this.rootBaseDir = rootBaseDir;
+    this.startRevision = startRevision;
+    this.clientManagers = clientManagers;
+    this.computers = computers;
+    this.threads = threads;
+    this.budget = budget;
+  }
+
+  Map<Path, Set<Integer>> changedLines(Collection<Path> files) {
+    Queue<Batch> queue = new ConcurrentLinkedQueue<>(batches(rootBaseDir, files));
+    Map<Path, Set<Integer>> changedLines = new HashMap<>();
+    int workers = Math.min(Math.max(1, threads), queue.size());
+    if (workers == 0) {
+      return changedLines;
+    }
+    AtomicLong bytes = new AtomicLong();
+    int batchCount = queue.size();
+    ExecutorService executor = Executors.newFixedThreadPool(workers, new DiffThreadFactory());
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < workers; i++) {
+        futures.add(executor.submit(() -> {
+          diffQueue(queue, changedLines, bytes);
+          return null;
+        }));
+      }
+      waitFor(futures);
+    } finally {
+      executor.shutdownNow();
+    }
+    LOG.debug("Diffed {} changed files of {} directories using {} threads: {} bytes", files.size(), batchCount, workers, bytes.get());
+    return changedLines;
+  }
+
+  private void diffQueue(Queue<Batch> queue, Map<Path, Set<Integer>> changedLines, AtomicLong bytes) throws SVNException {
+    SVNClientManager clientManager = clientManagers.get();
+    try {
+      SVNDiffClient diffClient = clientManager.getDiffClient();
+      Batch batch;
+      while ((batch = queue.poll()) != null) {
+        ChangedLinesComputer computer = computers.get();
+        try {
+          batch.diff(diffClient, startRevision, computer, budget);
+        } catch (SVNException | RuntimeException e) {
+          // no need for the other workers to go on
+          queue.clear();
+          throw e;
+        }
+        bytes.addAndGet(computer.bytes());
+        synchronized (changedLines) {
+          changedLines.putAll(computer.changedLines());
+        }
+      }
+    } finally {
+      clientManager.dispose();
+    }
+  }
+
+  private static void waitFor(List<Future<Void>> futures) {
+    RuntimeException failure = null;
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while diffing changed files", e);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Existing files of the project, grouped by directory, largest groups first
+   */
+  static List<Batch> batches(Path rootBaseDir, Collection<Path> files) {
+    Map<Path, List<Path>> byDirectory = new TreeMap<>();
+    for (Path file : files) {
+      if (file.startsWith(rootBaseDir) && Files.isRegularFile(file)) {
+        byDirectory.computeIfAbsent(file.getParent(), d -> new ArrayList<>()).add(file);
+      }
+    }
+    List<Batch> batches = new ArrayList<>();
+    byDirectory.forEach((directory, directoryFiles) -> batches.add(new Batch(directory, directoryFiles, isMostlyChanged(directory, directoryFiles))));
+    batches.sort((b1, b2) -> Integer.compare(b2.files.size(), b1.files.size()));
+    return batches;
+  }
+
+  private static boolean isMostlyChanged(Path directory, List<Path> changedFiles) {
+    if (changedFiles.size() == 1) {
+      return false;
+    }
+    try (Stream<Path> children = Files.list(directory)) {
+      return 2 * changedFiles.size() >= children.filter(Files::isRegularFile).count();
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  static class Batch {
+    private final Path directory;
+    private final List<Path> files;
+    private final boolean wholeDirectory;
+
+    Batch(Path directory, List<Path> files, boolean wholeDirectory) {
+      this.directory = directory;
+      this.files = files;
+      this.wholeDirectory = wholeDirectory;
+    }
+
+    Path directory() {
+      return directory;
+    }
+
+    boolean wholeDirectory() {
+      return wholeDirectory;
+    }
+
+    private void diff(SVNDiffClient diffClient, SVNRevision startRevision, ChangedLinesComputer computer, DiffBudget budget) throws SVNException {
+      if (wholeDirectory) {
+        ChangedLinesDiffGenerator.diff(diffClient, Collections.singletonList(directory.toFile()), startRevision, SVNDepth.FILES, computer,
+          budget);
+      } else {
+        // a file diffed with an empty depth misses its local changes when it is not changed in the repository
+        ChangedLinesDiffGenerator.diff(diffClient, files.stream().map(Path::toFile).collect(Collectors.toList()), startRevision,
+          SVNDepth.INFINITY, computer, budget);
+      }
+    }
+  }
+
+  private static class DiffThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "svn-diff-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
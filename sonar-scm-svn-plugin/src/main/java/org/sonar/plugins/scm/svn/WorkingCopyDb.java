@@ -0,0 +1,355 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.CheckForNull;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.tmatesoft.sqljet.core.SqlJetException;
+import org.tmatesoft.sqljet.core.SqlJetTransactionMode;
+import org.tmatesoft.sqljet.core.table.ISqlJetCursor;
+import org.tmatesoft.sqljet.core.table.ISqlJetTable;
+import org.tmatesoft.sqljet.core.table.SqlJetDb;
+
+/**
+ * Read-only access to the metadata of a working copy in format 1.7 or later, stored in the SQLite database {@code .svn/wc.db}.
+ * Everything needed for a directory and all its descendants is loaded by a few table scans, using the SQLite support
+ * embedded in SVNKit, and the database is closed right away.
+ */
+class WorkingCopyDb {
+
+  private static final Logger LOG = Loggers.get(WorkingCopyDb.class);
+
+  private static final String ADMIN_DIR = ".svn";
+  private static final String DB_FILE = "wc.db";
+  private static final String PRESENCE_NORMAL = "normal";
+  private static final String KIND_FILE = "file";
+  private static final String[] CONFLICT_FIELDS = {"conflict_old", "conflict_new", "conflict_working", "prop_reject", "tree_conflict_data",
+    "conflict_data"};
+
+  private final Map<Path, Node> nodes;
+
+  private WorkingCopyDb(Map<Path, Node> nodes) {
+    this.nodes = nodes;
+  }
+
+  /**
+   * @param recursive whether to load the descendants of the path, or only the path itself
+   * @return null if the path is not part of a working copy in format 1.7 or later, or if its database can't be read
+   */
+  @CheckForNull
+  static WorkingCopyDb load(File path, boolean recursive) {
+    Path location = path.toPath().toAbsolutePath().normalize();
+    Path root = findRoot(location);
+    if (root == null) {
+      return null;
+    }
+    String relativePath = root.relativize(location).toString().replace(File.separatorChar, '/');
+    SqlJetDb db = null;
+    try {
+      db = SqlJetDb.open(root.resolve(ADMIN_DIR).resolve(DB_FILE).toFile(), false);
+      db.beginTransaction(SqlJetTransactionMode.READ_ONLY);
+      return new WorkingCopyDb(new Loader(db, root, relativePath, recursive).load());
+    } catch (SqlJetException | RuntimeException e) {
+      LOG.debug("Unable to read the working copy database of " + root, e);
+      return null;
+    } finally {
+      close(db);
+    }
+  }
+
+  /**
+   * Shortcut to load a single node
+   */
+  @CheckForNull
+  static Node node(File path) {
+    WorkingCopyDb db = load(path, false);
+    return db != null ? db.get(path) : null;
+  }
+
+  @CheckForNull
+  Node get(File file) {
+    return nodes.get(file.toPath().toAbsolutePath().normalize());
+  }
+
+  Collection<Node> nodes() {
+    return nodes.values();
+  }
+
+  @CheckForNull
+  private static Path findRoot(Path location) {
+    Path dir = location;
+    while (dir != null) {
+      Path adminDir = dir.resolve(ADMIN_DIR);
+      if (Files.isDirectory(adminDir)) {
+        // older working copies have no database, but one admin directory per versioned directory
+        return Files.isRegularFile(adminDir.resolve(DB_FILE)) ? dir : null;
+      }
+      dir = dir.getParent();
+    }
+    return null;
+  }
+
+  private static void close(@CheckForNull SqlJetDb db) {
+    if (db != null) {
+      try {
+        db.close();
+      } catch (SqlJetException e) {
+        LOG.debug("Unable to close the working copy database", e);
+      }
+    }
+  }
+
+  private static class Loader {
+    private final SqlJetDb db;
+    private final Path root;
+    private final String relativePath;
+    private final boolean recursive;
+
+    Loader(SqlJetDb db, Path root, String relativePath, boolean recursive) {
+      this.db = db;
+      this.root = root;
+      this.relativePath = relativePath;
+      this.recursive = recursive;
+    }
+
+    Map<Path, Node> load() throws SqlJetException {
+      long wcId = rootId();
+      Map<Long, String[]> repositories = repositories();
+      Set<String> conflicted = conflicted(wcId);
+
+      Map<Path, Node> nodes = new HashMap<>();
+      Map<String, Long> opDepths = new HashMap<>();
+      ISqlJetCursor cursor = scope(db.getTable("NODES"), wcId);
+      try {
+        while (!cursor.eof()) {
+          String localPath = cursor.getString("local_relpath");
+          if (isInScope(localPath)) {
+            long opDepth = cursor.getInteger("op_depth");
+            Long maxOpDepth = opDepths.merge(localPath, opDepth, Math::max);
+            Path path = root.resolve(localPath).normalize();
+            Node node = nodes.computeIfAbsent(path, Node::new);
+            node.locallyChanged = maxOpDepth > 0;
+            node.conflicted = conflicted.contains(localPath);
+            if (opDepth == 0) {
+              readBase(cursor, node, repositories);
+            }
+          }
+          cursor.next();
+        }
+      } finally {
+        cursor.close();
+      }
+      return nodes;
+    }
+
+    private static void readBase(ISqlJetCursor cursor, Node node, Map<Long, String[]> repositories) throws SqlJetException {
+      node.kind = cursor.getString("kind");
+      node.presence = cursor.getString("presence");
+      node.revision = integerOrInvalid(cursor, "revision");
+      node.changedRevision = integerOrInvalid(cursor, "changed_revision");
+      node.checksum = cursor.getString("checksum");
+      node.translatedSize = integerOrInvalid(cursor, "translated_size");
+      node.lastModTime = integerOrInvalid(cursor, "last_mod_time");
+      node.repositoryPath = cursor.getString("repos_path");
+      String[] repository = repositories.get(cursor.getInteger("repos_id"));
+      if (repository != null) {
+        node.repositoryRoot = repository[0];
+        node.repositoryUuid = repository[1];
+      }
+    }
+
+    private long rootId() throws SqlJetException {
+      ISqlJetCursor cursor = db.getTable("WCROOT").open();
+      try {
+        while (!cursor.eof()) {
+          if (cursor.isNull("local_abspath")) {
+            return cursor.getInteger("id");
+          }
+          cursor.next();
+        }
+      } finally {
+        cursor.close();
+      }
+      throw new IllegalStateException("No working copy root found");
+    }
+
+    private Map<Long, String[]> repositories() throws SqlJetException {
+      Map<Long, String[]> repositories = new HashMap<>();
+      ISqlJetCursor cursor = db.getTable("REPOSITORY").open();
+      try {
+        while (!cursor.eof()) {
+          repositories.put(cursor.getInteger("id"), new String[] {cursor.getString("root"), cursor.getString("uuid")});
+          cursor.next();
+        }
+      } finally {
+        cursor.close();
+      }
+      return repositories;
+    }
+
+    private Set<String> conflicted(long wcId) throws SqlJetException {
+      Set<String> conflicted = new HashSet<>();
+      ISqlJetCursor cursor = scope(db.getTable("ACTUAL_NODE"), wcId);
+      try {
+        while (!cursor.eof()) {
+          String localPath = cursor.getString("local_relpath");
+          if (isInScope(localPath) && hasConflict(cursor)) {
+            conflicted.add(localPath);
+          }
+          cursor.next();
+        }
+      } finally {
+        cursor.close();
+      }
+      return conflicted;
+    }
+
+    private static boolean hasConflict(ISqlJetCursor cursor) throws SqlJetException {
+      for (String field : CONFLICT_FIELDS) {
+        if (!cursor.isNull(field)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Rows are sorted by working copy id and relative path, so the descendants of a path are a range
+     * starting with "path/" and ending before "path0", '0' being the character following '/'.
+     */
+    private ISqlJetCursor scope(ISqlJetTable table, long wcId) throws SqlJetException {
+      String index = table.getPrimaryKeyIndexName();
+      if (!recursive) {
+        return table.lookup(index, wcId, relativePath);
+      }
+      if (relativePath.isEmpty()) {
+        return table.lookup(index, wcId);
+      }
+      return table.scope(index, new Object[] {wcId, relativePath}, new Object[] {wcId, relativePath + '0'});
+    }
+
+    private boolean isInScope(String localPath) {
+      if (localPath.equals(relativePath)) {
+        return true;
+      }
+      return recursive && (relativePath.isEmpty() || localPath.startsWith(relativePath + '/'));
+    }
+
+    private static long integerOrInvalid(ISqlJetCursor cursor, String field) throws SqlJetException {
+      return cursor.isNull(field) ? -1 : cursor.getInteger(field);
+    }
+  }
+
+  static class Node {
+    private final Path path;
+    private String kind;
+    private String presence;
+    private long revision = -1;
+    private long changedRevision = -1;
+    private String checksum;
+    private long translatedSize = -1;
+    private long lastModTime = -1;
+    private String repositoryRoot;
+    private String repositoryUuid;
+    private String repositoryPath;
+    private boolean locallyChanged;
+    private boolean conflicted;
+
+    Node(Path path) {
+      this.path = path;
+    }
+
+    Path path() {
+      return path;
+    }
+
+    /**
+     * Whether the node is a file or directory of the repository, without local addition, deletion, replacement or conflict
+     */
+    boolean isPristine() {
+      return !locallyChanged && !conflicted && PRESENCE_NORMAL.equals(presence) && repositoryPath != null && repositoryRoot != null;
+    }
+
+    boolean isFile() {
+      return KIND_FILE.equals(kind);
+    }
+
+    /**
+     * Revision of the node in the working copy, -1 if not known
+     */
+    long revision() {
+      return revision;
+    }
+
+    long changedRevision() {
+      return changedRevision;
+    }
+
+    /**
+     * SHA-1 checksum of the pristine content, prefixed by "$sha1$"
+     */
+    @CheckForNull
+    String checksum() {
+      return checksum;
+    }
+
+    @CheckForNull
+    String repositoryRoot() {
+      return repositoryRoot;
+    }
+
+    @CheckForNull
+    String repositoryUuid() {
+      return repositoryUuid;
+    }
+
+    @CheckForNull
+    String repositoryPath() {
+      return repositoryPath;
+    }
+
+    /**
+     * Same heuristic as SVN itself: the content of a file is unmodified if its size and modification time
+     * are the ones recorded in the database. False means that the file may be modified.
+     */
+    boolean hasRecordedSizeAndTimestamp() {
+      if (translatedSize < 0 || lastModTime < 0) {
+        return false;
+      }
+      try {
+        return Files.size(path) == translatedSize
+          && Files.getLastModifiedTime(path).to(TimeUnit.MICROSECONDS) == lastModTime;
+      } catch (IOException e) {
+        return false;
+      }
+    }
+  }
+}
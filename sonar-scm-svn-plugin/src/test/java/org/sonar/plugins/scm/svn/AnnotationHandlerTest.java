@@ -0,0 +1,56 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.util.Date;
+import java.util.List;
+import org.junit.Test;
+import org.sonar.api.batch.scm.BlameLine;
+import org.tmatesoft.svn.core.SVNException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AnnotationHandlerTest {
+
+  @Test
+  public void share_blame_lines_of_same_revision() throws SVNException {
+    Date date1 = new Date(1000);
+    Date date2 = new Date(2000);
+    AnnotationHandler handler = new AnnotationHandler();
+    handler.handleLine(date1, 1, "alice", "a", date1, 1, "alice", "/trunk", 0);
+    handler.handleLine(date2, 2, "bob", "b", date2, 2, "bob", "/trunk", 1);
+    handler.handleLine(date1, 1, "alice", "c", date1, 1, "alice", "/trunk", 2);
+    handler.handleLine(date2, 3, "carol", "d", date2, 2, "bob", "/branches/b", 3);
+
+    List<BlameLine> lines = handler.getLines();
+
+    assertThat(lines).containsExactly(
+      new BlameLine().date(date1).revision("1").author("alice"),
+      new BlameLine().date(date2).revision("2").author("bob"),
+      new BlameLine().date(date1).revision("1").author("alice"),
+      new BlameLine().date(date2).revision("2").author("bob"));
+    assertThat(lines.get(2)).isSameAs(lines.get(0));
+    assertThat(lines.get(3)).isSameAs(lines.get(1));
+    assertThat(handler.getBlame().table()).hasSize(2);
+    assertThat(handler.getRevisions()).containsExactly(1, 2, 1, 3);
+    assertThat(handler.getLineHashes()).containsExactly(AnnotationHandler.hash("a"), AnnotationHandler.hash("b"), AnnotationHandler.hash("c"),
+      AnnotationHandler.hash("d"));
+  }
+}
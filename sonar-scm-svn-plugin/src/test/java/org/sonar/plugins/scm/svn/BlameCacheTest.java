@@ -0,0 +1,153 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Date;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.scm.BlameLine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlameCacheTest {
+
+  private static final BlameLine LINE_1 = new BlameLine().revision("1").date(new Date(1000L)).author("foo");
+  private static final BlameLine LINE_2 = new BlameLine().revision("2").date(new Date(2000L)).author("bar");
+  private static final BlameLine ANONYMOUS = new BlameLine().revision("3");
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void hit_only_if_revision_and_checksum_match() throws IOException {
+    BlameCache cache = new BlameCache(temp.newFile().toPath(), Long.MAX_VALUE);
+    CompactBlame blame = CompactBlame.of(Arrays.asList(LINE_1, LINE_2, LINE_1));
+    cache.put("uuid", "/trunk/A.java", 1, 2, "abc", blame, new int[3]);
+
+    assertThat(cache.get("uuid", "/trunk/A.java", 1, 2, "abc")).isSameAs(blame);
+    assertThat(cache.get("uuid", "/trunk/A.java", 1, 3, "abc")).isNull();
+    assertThat(cache.get("uuid", "/trunk/A.java", 1, 2, "def")).isNull();
+    assertThat(cache.get("other", "/trunk/A.java", 1, 2, "abc")).isNull();
+    assertThat(cache.get("uuid", "/trunk/B.java", 1, 2, "abc")).isNull();
+    // blame starting at another revision
+    assertThat(cache.get("uuid", "/trunk/A.java", 2, 2, "abc")).isNull();
+    assertThat(cache.previous("uuid", "/trunk/A.java", 2, 3)).isNull();
+    assertThat(cache.cachedRevision("uuid", "/trunk/A.java", 1)).isEqualTo(2);
+    assertThat(cache.cachedRevision("uuid", "/trunk/B.java", 1)).isEqualTo(-1);
+    assertThat(cache.hits()).isEqualTo(1);
+    assertThat(cache.misses()).isEqualTo(5);
+  }
+
+  @Test
+  public void previous_entry_of_older_revision() throws IOException {
+    BlameCache cache = new BlameCache(temp.newFile().toPath(), Long.MAX_VALUE);
+    cache.put("uuid", "/trunk/A.java", 1, 2, "abc", CompactBlame.of(Arrays.asList(LINE_1, LINE_2)), new int[] {10, 20});
+
+    assertThat(cache.previous("uuid", "/trunk/A.java", 1, 2)).isNull();
+    assertThat(cache.previous("uuid", "/trunk/A.java", 1, 1)).isNull();
+    assertThat(cache.previous("uuid", "/trunk/B.java", 1, 3)).isNull();
+    BlameCache.Entry previous = cache.previous("uuid", "/trunk/A.java", 1, 3);
+    assertThat(previous.revision()).isEqualTo(2);
+    assertThat(previous.lineHashes()).containsExactly(10, 20);
+    assertThat(previous.blame().toList()).containsExactly(LINE_1, LINE_2);
+    assertThat(cache.extended()).isEqualTo(1);
+  }
+
+  @Test
+  public void save_and_load() throws IOException {
+    Path file = temp.getRoot().toPath().resolve("sub/cache.bin");
+    BlameCache cache = new BlameCache(file, Long.MAX_VALUE);
+    cache.put("uuid", "/trunk/A.java", 1, 2, "abc", CompactBlame.of(Arrays.asList(LINE_1, LINE_2, LINE_1, ANONYMOUS)), new int[] {1, 2, 1, -4});
+    cache.put("uuid", "/trunk/B.java", 1, 1, "def", CompactBlame.of(Arrays.asList(LINE_1)), new int[] {1});
+    cache.save();
+
+    BlameCache loaded = BlameCache.load(file, Long.MAX_VALUE);
+    assertThat(loaded.entries()).isEqualTo(2);
+    CompactBlame blame = loaded.get("uuid", "/trunk/A.java", 1, 2, "abc");
+    assertThat(blame.toList()).containsExactly(LINE_1, LINE_2, LINE_1, ANONYMOUS);
+    assertThat(blame.toList().get(0)).isSameAs(blame.toList().get(2));
+    assertThat(loaded.previous("uuid", "/trunk/A.java", 1, 3).lineHashes()).containsExactly(1, 2, 1, -4);
+    assertThat(loaded.get("uuid", "/trunk/B.java", 1, 1, "def").toList()).containsExactly(LINE_1);
+  }
+
+  @Test
+  public void do_not_save_without_new_entries() throws IOException {
+    Path file = temp.getRoot().toPath().resolve("cache.bin");
+    BlameCache cache = new BlameCache(file, Long.MAX_VALUE);
+    cache.save();
+    assertThat(file).doesNotExist();
+
+    cache.put("uuid", "/trunk/A.java", 1, 1, "abc", CompactBlame.of(Arrays.asList(LINE_1)), new int[] {1});
+    cache.save();
+    Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+
+    BlameCache loaded = BlameCache.load(file, Long.MAX_VALUE);
+    assertThat(loaded.get("uuid", "/trunk/A.java", 1, 1, "abc")).isNotNull();
+    loaded.save();
+    cache.save();
+    assertThat(Files.getLastModifiedTime(file).toMillis()).isZero();
+  }
+
+  @Test
+  public void merge_entries_saved_by_other_analyses() throws IOException {
+    Path file = temp.getRoot().toPath().resolve("cache.bin");
+    BlameCache first = BlameCache.load(file, Long.MAX_VALUE);
+    BlameCache second = BlameCache.load(file, Long.MAX_VALUE);
+    first.put("uuid", "/trunk/A.java", 1, 1, "abc", CompactBlame.of(Arrays.asList(LINE_1)), new int[] {1});
+    second.put("uuid", "/trunk/B.java", 1, 2, "def", CompactBlame.of(Arrays.asList(LINE_2)), new int[] {2});
+    first.save();
+    second.save();
+
+    BlameCache loaded = BlameCache.load(file, Long.MAX_VALUE);
+    assertThat(loaded.entries()).isEqualTo(2);
+    assertThat(loaded.get("uuid", "/trunk/A.java", 1, 1, "abc").toList()).containsExactly(LINE_1);
+    assertThat(loaded.get("uuid", "/trunk/B.java", 1, 2, "def").toList()).containsExactly(LINE_2);
+  }
+
+  @Test
+  public void evict_least_recently_used_entries() throws IOException {
+    BlameCache cache = new BlameCache(temp.newFile().toPath(), 250);
+    cache.put("uuid", "A", 1, 1, "", CompactBlame.of(Arrays.asList(LINE_1, LINE_1)), new int[2]);
+    cache.put("uuid", "B", 1, 1, "", CompactBlame.of(Arrays.asList(LINE_1, LINE_1)), new int[2]);
+    assertThat(cache.get("uuid", "A", 1, 1, "")).isNotNull();
+
+    cache.put("uuid", "C", 1, 1, "", CompactBlame.of(Arrays.asList(LINE_1, LINE_1)), new int[2]);
+
+    assertThat(cache.entries()).isEqualTo(2);
+    assertThat(cache.get("uuid", "A", 1, 1, "")).isNotNull();
+    assertThat(cache.get("uuid", "B", 1, 1, "")).isNull();
+    assertThat(cache.get("uuid", "C", 1, 1, "")).isNotNull();
+  }
+
+  @Test
+  public void ignore_missing_or_invalid_file() throws IOException {
+    assertThat(BlameCache.load(temp.getRoot().toPath().resolve("missing"), Long.MAX_VALUE).entries()).isZero();
+
+    Path invalid = temp.newFile().toPath();
+    Files.write(invalid, "not a cache".getBytes());
+    assertThat(BlameCache.load(invalid, Long.MAX_VALUE).entries()).isZero();
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlameConcurrencyLimiterTest {
+
+  private final AtomicLong clock = new AtomicLong();
+
+  @Test
+  public void start_at_max_limit() {
+    assertThat(new BlameConcurrencyLimiter(8).limit()).isEqualTo(8);
+    assertThat(new BlameConcurrencyLimiter(1).limit()).isEqualTo(1);
+    assertThat(new BlameConcurrencyLimiter(0).limit()).isEqualTo(1);
+  }
+
+  @Test
+  public void increase_limit_up_to_max_while_latency_is_flat() {
+    BlameConcurrencyLimiter limiter = new BlameConcurrencyLimiter(4, clock::get);
+    limiter.failed(limiter.acquire(), true);
+    assertThat(limiter.limit()).isEqualTo(2);
+    clock.incrementAndGet();
+    for (int i = 0; i < 10; i++) {
+      requestAll(limiter, 10, 5);
+    }
+    assertThat(limiter.limit()).isEqualTo(4);
+  }
+
+  @Test
+  public void do_not_increase_limit_when_not_used() {
+    BlameConcurrencyLimiter limiter = new BlameConcurrencyLimiter(8, clock::get);
+    limiter.failed(limiter.acquire(), true);
+    clock.incrementAndGet();
+    for (int i = 0; i < 10; i++) {
+      long start = limiter.acquire();
+      clock.addAndGet(10);
+      limiter.succeeded(start, 1);
+    }
+    assertThat(limiter.limit()).isEqualTo(4);
+  }
+
+  @Test
+  public void normalize_latency_by_file_revisions() {
+    BlameConcurrencyLimiter limiter = new BlameConcurrencyLimiter(8, clock::get);
+    requestAll(limiter, 10, 1);
+    requestAll(limiter, 100, 10);
+    assertThat(limiter.limit()).isEqualTo(8);
+  }
+
+  @Test
+  public void halve_limit_when_latency_rises() {
+    BlameConcurrencyLimiter limiter = new BlameConcurrencyLimiter(8, clock::get);
+    requestAll(limiter, 10, 1);
+    assertThat(limiter.limit()).isEqualTo(8);
+
+    long start = limiter.acquire();
+    clock.addAndGet(100);
+    limiter.succeeded(start, 1);
+    assertThat(limiter.limit()).isEqualTo(4);
+  }
+
+  @Test
+  public void halve_limit_once_when_concurrent_requests_fail() {
+    BlameConcurrencyLimiter limiter = new BlameConcurrencyLimiter(8, clock::get);
+    long first = limiter.acquire();
+    long second = limiter.acquire();
+    clock.incrementAndGet();
+    limiter.failed(first, true);
+    limiter.failed(second, true);
+    assertThat(limiter.limit()).isEqualTo(4);
+
+    clock.incrementAndGet();
+    long third = limiter.acquire();
+    clock.incrementAndGet();
+    limiter.failed(third, true);
+    assertThat(limiter.limit()).isEqualTo(2);
+
+    for (int i = 0; i < 2; i++) {
+      clock.incrementAndGet();
+      limiter.failed(limiter.acquire(), true);
+    }
+    assertThat(limiter.limit()).isEqualTo(1);
+  }
+
+  @Test
+  public void keep_limit_on_other_failures() {
+    BlameConcurrencyLimiter limiter = new BlameConcurrencyLimiter(8, clock::get);
+    limiter.failed(limiter.acquire(), false);
+    assertThat(limiter.limit()).isEqualTo(8);
+  }
+
+  @Test
+  public void block_requests_above_limit() throws Exception {
+    BlameConcurrencyLimiter limiter = new BlameConcurrencyLimiter(1, clock::get);
+    long start = limiter.acquire();
+    Thread waiting = new Thread(limiter::acquire);
+    waiting.start();
+    waiting.join(100);
+    assertThat(waiting.isAlive()).isTrue();
+
+    limiter.failed(start, false);
+    waiting.join(10_000);
+    assertThat(waiting.isAlive()).isFalse();
+  }
+
+  /**
+   * Runs as many requests as the limit allows, all with the same latency
+   */
+  private void requestAll(BlameConcurrencyLimiter limiter, long latency, int fileRevisions) {
+    int limit = limiter.limit();
+    long[] starts = new long[limit];
+    for (int i = 0; i < limit; i++) {
+      starts[i] = limiter.acquire();
+    }
+    clock.addAndGet(latency);
+    for (int i = 0; i < limit; i++) {
+      limiter.succeeded(starts[i], fileRevisions);
+    }
+  }
+}
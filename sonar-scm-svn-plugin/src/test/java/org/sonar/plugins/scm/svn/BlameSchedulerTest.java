@@ -0,0 +1,95 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlameSchedulerTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void order_files_from_the_costliest() throws Exception {
+    SvnTester svnTester = new SvnTester(temp.newFolder().toPath());
+    Path trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    svnTester.createFile(trunk, "small.txt", "a\n");
+    svnTester.createFile(trunk, "large.txt", "a\nb\nc\n");
+    svnTester.createFile(trunk, "changed.txt", "a\n");
+    svnTester.add(trunk, "small.txt");
+    svnTester.add(trunk, "large.txt");
+    svnTester.add(trunk, "changed.txt");
+    svnTester.commit(trunk);
+    for (String content : new String[] {"a\nb\n", "a\nb\nc\n", "a\nb\nc\nd\n"}) {
+      svnTester.createFile(trunk, "changed.txt", content);
+      svnTester.commit(trunk);
+    }
+    svnTester.update(trunk);
+
+    InputFile small = inputFile(trunk, "small.txt", 2);
+    InputFile large = inputFile(trunk, "large.txt", 4);
+    InputFile changed = inputFile(trunk, "changed.txt", 5);
+    InputFile unversioned = inputFile(trunk, "unversioned.txt", 10);
+    StatusSnapshot snapshot = StatusSnapshot.take(SVNClientManager.newInstance(), trunk.toFile());
+
+    BlameScheduler scheduler = BlameScheduler.estimate(Arrays.asList(small, large, changed, unversioned), snapshot, null, 1);
+
+    assertThat(scheduler.files()).containsExactly(changed, large, unversioned, small);
+    assertThat(scheduler.cost(changed)).isEqualTo(5 * 6);
+    assertThat(scheduler.cost(large)).isEqualTo(4 * 3);
+    assertThat(scheduler.cost(unversioned)).isEqualTo(10);
+
+    // files last changed before the start revision are annotated from one revision
+    scheduler = BlameScheduler.estimate(Arrays.asList(small, changed), snapshot, null, 8);
+    assertThat(scheduler.cost(changed)).isEqualTo(5);
+    scheduler = BlameScheduler.estimate(Collections.singletonList(changed), snapshot, null, 5);
+    assertThat(scheduler.cost(changed)).isEqualTo(5 * 3);
+
+    // cached blames are served, or extended from their revision
+    StatusSnapshot.FileStatus status = snapshot.get(changed.file());
+    BlameCache cache = new BlameCache(temp.newFile().toPath(), Long.MAX_VALUE);
+    cache.put(status.repositoryUuid(), status.repositoryPath(), 1, 6, "abc", CompactBlame.of(Collections.emptyList()), new int[0]);
+    scheduler = BlameScheduler.estimate(Arrays.asList(small, changed), snapshot, cache, 1);
+    assertThat(scheduler.files()).containsExactly(small, changed);
+    assertThat(scheduler.cost(changed)).isZero();
+    cache.put(status.repositoryUuid(), status.repositoryPath(), 1, 4, "abc", CompactBlame.of(Collections.emptyList()), new int[0]);
+    assertThat(BlameScheduler.estimate(Collections.singletonList(changed), snapshot, cache, 1).cost(changed)).isEqualTo(5 * 3);
+    assertThat(cache.hits()).isZero();
+    assertThat(cache.misses()).isZero();
+  }
+
+  private static InputFile inputFile(Path baseDir, String path, int lines) {
+    return new TestInputFileBuilder("foo", path)
+      .setLines(lines)
+      .setModuleBaseDir(baseDir)
+      .build();
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.scm.BlameLine;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlameSessionTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void annotate_files_in_one_session() throws IOException, SVNException {
+    SvnTester svnTester = new SvnTester(temp.newFolder().toPath());
+    Path trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    svnTester.createFile(trunk, "a.txt", "a\nb\n");
+    svnTester.createFile(trunk, "b.txt", "c\n");
+    svnTester.add(trunk, "a.txt");
+    svnTester.add(trunk, "b.txt");
+    svnTester.commit(trunk);
+    svnTester.createFile(trunk, "a.txt", "a\nB\n");
+    svnTester.commit(trunk);
+    svnTester.update(trunk);
+
+    StatusSnapshot snapshot = StatusSnapshot.take(SVNClientManager.newInstance(), trunk.toFile());
+    BlameSession session = new BlameSession(SVNClientManager.newInstance());
+    try {
+      File a = trunk.resolve("a.txt").toFile();
+      File b = trunk.resolve("b.txt").toFile();
+      AnnotationHandler handlerA = session.annotate(a, snapshot.get(a), BlameStartRevision.wholeHistory());
+      AnnotationHandler handlerB = session.annotate(b, snapshot.get(b), BlameStartRevision.wholeHistory());
+
+      assertThat(handlerA.getRevisions()).containsExactly(3, 4);
+      assertThat(handlerB.getRevisions()).containsExactly(3);
+      assertThat(session.sessions()).isEqualTo(1);
+    } finally {
+      session.close();
+    }
+  }
+
+  @Test
+  public void annotate_in_memory_like_svnkit() throws IOException, SVNException {
+    SvnTester svnTester = new SvnTester(temp.newFolder().toPath());
+    Path trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    svnTester.createFile(trunk, "a.txt", "a\nb\nc\nd\ne");
+    svnTester.add(trunk, "a.txt");
+    svnTester.commit(trunk);
+    svnTester.createFile(trunk, "a.txt", "a\n  b\r\nX\nc\nd\ne\n");
+    svnTester.commit(trunk);
+    svnTester.createFile(trunk, "a.txt", "d\ne\na\nb\nX\nc\n\u00e9t\u00e9\n");
+    svnTester.commit(trunk);
+    svnTester.createFile(trunk, "a.txt", "d\ne\na\nb\n\nX\nY\rc\n \u00e9 t\u00e9\nb");
+    svnTester.commit(trunk);
+    svnTester.update(trunk);
+
+    File file = trunk.resolve("a.txt").toFile();
+    StatusSnapshot.FileStatus status = StatusSnapshot.take(SVNClientManager.newInstance(), trunk.toFile()).get(file);
+    BlameStartRevision fromRevision5 = new BlameStartRevision(5, new BlameLine().revision("5").author("start"));
+    BlameSession svnkit = new BlameSession(SVNClientManager.newInstance(), false);
+    BlameSession memory = new BlameSession(SVNClientManager.newInstance(), true);
+    try {
+      for (BlameStartRevision startRevision : new BlameStartRevision[] {BlameStartRevision.wholeHistory(), fromRevision5}) {
+        AnnotationHandler expected = svnkit.annotate(file, status, startRevision);
+        AnnotationHandler actual = memory.annotate(file, status, startRevision);
+
+        assertThat(actual.getLines()).isEqualTo(expected.getLines());
+        assertThat(actual.getRevisions()).isEqualTo(expected.getRevisions());
+        assertThat(actual.getLineHashes()).isEqualTo(expected.getLineHashes());
+      }
+      assertThat(memory.annotate(file, status, BlameStartRevision.wholeHistory()).getRevisions()).containsExactly(5, 5, 3, 3, 6, 4, 6, 3, 5, 6);
+    } finally {
+      svnkit.close();
+      memory.close();
+    }
+  }
+
+  @Test
+  public void annotate_file_without_known_location_through_log_client() throws IOException, SVNException {
+    SvnTester svnTester = new SvnTester(temp.newFolder().toPath());
+    Path trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    svnTester.createFile(trunk, "a.txt", "a\n");
+    svnTester.add(trunk, "a.txt");
+    svnTester.commit(trunk);
+
+    BlameSession session = new BlameSession(SVNClientManager.newInstance());
+    try {
+      StatusSnapshot.FileStatus status = new StatusSnapshot.FileStatus(true, null, null, null, -1, -1, null);
+      AnnotationHandler handler = session.annotate(trunk.resolve("a.txt").toFile(), status, BlameStartRevision.wholeHistory());
+
+      assertThat(handler.getRevisions()).containsExactly(3);
+      assertThat(session.sessions()).isZero();
+    } finally {
+      session.close();
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import org.junit.Test;
+import org.sonar.plugins.scm.svn.ChangedFilesPlanner.Strategy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.sonar.plugins.scm.svn.ChangedFilesPlanner.SUMMARIZE_THRESHOLD;
+
+public class ChangedFilesPlannerTest {
+
+  @Test
+  public void summarize_branches_with_many_revisions() {
+    assertThat(ChangedFilesPlanner.choose(null, 10)).isEqualTo(Strategy.LOG);
+    assertThat(ChangedFilesPlanner.choose(SvnConfiguration.CHANGED_FILES_STRATEGY_AUTO, SUMMARIZE_THRESHOLD)).isEqualTo(Strategy.LOG);
+    assertThat(ChangedFilesPlanner.choose(SvnConfiguration.CHANGED_FILES_STRATEGY_AUTO, SUMMARIZE_THRESHOLD + 1)).isEqualTo(Strategy.SUMMARIZE);
+  }
+
+  @Test
+  public void walk_log_when_revisions_are_unknown() {
+    assertThat(ChangedFilesPlanner.choose(null, -1)).isEqualTo(Strategy.LOG);
+  }
+
+  @Test
+  public void use_configured_strategy() {
+    assertThat(ChangedFilesPlanner.choose("log", SUMMARIZE_THRESHOLD * 10)).isEqualTo(Strategy.LOG);
+    assertThat(ChangedFilesPlanner.choose("SUMMARIZE", 1)).isEqualTo(Strategy.SUMMARIZE);
+  }
+}
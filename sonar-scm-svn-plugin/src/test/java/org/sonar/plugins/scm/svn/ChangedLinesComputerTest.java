@@ -19,173 +19,52 @@
  */
 package org.sonar.plugins.scm.svn;
 
-import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import org.junit.Test;
 import org.sonar.api.internal.google.common.collect.ImmutableMap;
 import org.sonar.api.internal.google.common.collect.ImmutableSet;
 
-import static java.util.Collections.singleton;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class ChangedLinesComputerTest {
 
   private final Path rootBaseDir = Paths.get("/foo");
-  private final ChangedLinesComputer underTest = new ChangedLinesComputer(rootBaseDir, ImmutableSet.of(
+  private final ChangedLinesComputer underTest = new ChangedLinesComputer(ImmutableSet.of(
     rootBaseDir.resolve("sample1"),
-    rootBaseDir.resolve("sample2"),
-    rootBaseDir.resolve("sample3"),
-    rootBaseDir.resolve("sample4")));
+    rootBaseDir.resolve("sample2")));
 
   @Test
-  public void do_not_count_deleted_line() throws IOException {
-    String example = "Index: sample1\n"
-      + "===================================================================\n"
-      + "--- a/sample1\n"
-      + "+++ b/sample1\n"
-      + "@@ -1 +0,0 @@\n"
-      + "-deleted line\n";
-
-    printDiff(example);
-    assertThat(underTest.changedLines()).isEmpty();
+  public void merge_lines_added_for_the_same_file() {
+    underTest.addFile(rootBaseDir.resolve("sample1"), lines(1, 2));
+    underTest.addFile(rootBaseDir.resolve("sample1"), lines(5, 6));
+    underTest.addFile(rootBaseDir.resolve("sample2"), lines(3, 3));
+
+    assertThat(underTest.changedLines()).isEqualTo(ImmutableMap.of(
+      rootBaseDir.resolve("sample1"), ImmutableSet.of(1, 2, 5, 6),
+      rootBaseDir.resolve("sample2"), ImmutableSet.of(3)));
   }
 
   @Test
-  public void count_single_added_line() throws IOException {
-    String example = "Index: sample1\n"
-      + "===================================================================\n"
-      + "--- a/sample1\n"
-      + "+++ b/sample1\n"
-      + "@@ -0,0 +1 @@\n"
-      + "+added line\n";
+  public void count_transferred_bytes() {
+    underTest.addBytes(10);
+    underTest.addBytes(20);
 
-    printDiff(example);
-    assertThat(underTest.changedLines()).isEqualTo(ImmutableMap.of(rootBaseDir.resolve("sample1"), singleton(1)));
+    assertThat(underTest.bytes()).isEqualTo(30);
   }
 
   @Test
-  public void count_multiple_added_lines() throws IOException {
-    String example = "Index: sample1\n"
-      + "===================================================================\n"
-      + "--- a/sample1\n"
-      + "+++ b/sample1\n"
-      + "@@ -1 +1,3 @@\n"
-      + " same line\n"
-      + "+added line 1\n"
-      + "+added line 2\n";
+  public void ignore_files_without_changed_lines() {
+    underTest.addFile(rootBaseDir.resolve("sample1"), new LineRanges());
 
-    printDiff(example);
-    assertThat(underTest.changedLines()).isEqualTo(ImmutableMap.of(rootBaseDir.resolve("sample1"), ImmutableSet.of(2, 3)));
-  }
-
-  @Test
-  public void handle_index_using_absolute_paths() throws IOException {
-    String example = "Index: /foo/sample1\n"
-      + "===================================================================\n"
-      + "--- a/sample1\n"
-      + "+++ b/sample1\n"
-      + "@@ -1 +1,3 @@\n"
-      + " same line\n"
-      + "+added line 1\n"
-      + "+added line 2\n";
-
-    printDiff(example);
-    assertThat(underTest.changedLines()).isEqualTo(ImmutableMap.of(rootBaseDir.resolve("sample1"), ImmutableSet.of(2, 3)));
-  }
-
-  @Test
-  public void compute_from_multiple_hunks() throws IOException {
-    String example = "Index: sample1\n"
-      + "===================================================================\n"
-      + "--- lao\t2002-02-21 23:30:39.942229878 -0800\n"
-      + "+++ tzu\t2002-02-21 23:30:50.442260588 -0800\n"
-      + "@@ -1,7 +1,6 @@\n"
-      + "-The Way that can be told of is not the eternal Way;\n"
-      + "-The name that can be named is not the eternal name.\n"
-      + " The Nameless is the origin of Heaven and Earth;\n"
-      + "-The Named is the mother of all things.\n"
-      + "+The named is the mother of all things.\n"
-      + "+\n"
-      + " Therefore let there always be non-being,\n"
-      + "   so we may see their subtlety,\n"
-      + " And let there always be being,\n"
-      + "@@ -9,3 +8,6 @@\n"
-      + " The two are the same,\n"
-      + " But after they are produced,\n"
-      + "   they have different names.\n"
-      + "+They both may be called deep and profound.\n"
-      + "+Deeper and more profound,\n"
-      + "+The door of all subtleties!\n";
-    printDiff(example);
-    assertThat(underTest.changedLines()).isEqualTo(ImmutableMap.of(rootBaseDir.resolve("sample1"), ImmutableSet.of(2, 3, 11, 12, 13)));
-  }
-
-  @Test(expected = IllegalStateException.class)
-  public void crash_on_invalid_start_line_format() throws IOException {
-    String example = "Index: sample1\n"
-      + "===================================================================\n"
-      + "--- a/sample1\n"
-      + "+++ b/sample1\n"
-      + "@@ -1 +x1,3 @@\n"
-      + " same line\n"
-      + "+added line 1\n"
-      + "+added line 2\n";
-
-    printDiff(example);
-    underTest.changedLines();
-  }
-
-  @Test
-  public void parse_diff_with_multiple_files() throws IOException {
-    String example = "Index: sample1\n"
-      + "===================================================================\n"
-      + "--- a/sample1\n"
-      + "+++ b/sample1\n"
-      + "@@ -1 +0,0 @@\n"
-      + "-deleted line\n"
-      + "Index: sample2\n"
-      + "===================================================================\n"
-      + "--- a/sample2\n"
-      + "+++ b/sample2\n"
-      + "@@ -0,0 +1 @@\n"
-      + "+added line\n"
-      + "Index: sample3\n"
-      + "===================================================================\n"
-      + "--- a/sample3\n"
-      + "+++ b/sample3\n"
-      + "@@ -0,0 +1,2 @@\n"
-      + "+added line 1\n"
-      + "+added line 2\n"
-      + "Index: sample3-not-included\n"
-      + "===================================================================\n"
-      + "--- a/sample3-not-included\n"
-      + "+++ b/sample3-not-included\n"
-      + "@@ -0,0 +1,2 @@\n"
-      + "+added line 1\n"
-      + "+added line 2\n"
-      + "Index: sample4\n"
-      + "===================================================================\n"
-      + "--- a/sample4\n"
-      + "+++ b/sample4\n"
-      + "@@ -1 +1,3 @@\n"
-      + " same line\n"
-      + "+added line 1\n"
-      + "+added line 2\n";
-
-    printDiff(example);
-    assertThat(underTest.changedLines())
-      .isEqualTo(
-        ImmutableMap.of(
-          rootBaseDir.resolve("sample2"), ImmutableSet.of(1),
-          rootBaseDir.resolve("sample3"), ImmutableSet.of(1, 2),
-          rootBaseDir.resolve("sample4"), ImmutableSet.of(2, 3)));
+    assertThat(underTest.changedLines()).isEmpty();
+    assertThat(underTest.includes(rootBaseDir.resolve("sample1"))).isTrue();
+    assertThat(underTest.includes(rootBaseDir.resolve("other"))).isFalse();
   }
 
-  private void printDiff(String unifiedDiff) throws IOException {
-    try (OutputStreamWriter writer = new OutputStreamWriter(underTest.receiver())) {
-      writer.write(unifiedDiff);
-    }
+  private static LineRanges lines(int first, int last) {
+    LineRanges lines = new LineRanges();
+    lines.addLines(first, last);
+    return lines;
   }
 }
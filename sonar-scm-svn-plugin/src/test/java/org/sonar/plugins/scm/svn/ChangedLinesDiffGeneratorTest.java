@@ -0,0 +1,148 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.internal.google.common.collect.ImmutableMap;
+import org.sonar.api.internal.google.common.collect.ImmutableSet;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.internal.wc.SVNFileUtil;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChangedLinesDiffGeneratorTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void add_lines_of_the_working_file_not_in_the_base_file() throws IOException, SVNException {
+    Path file = temp.getRoot().toPath().resolve("sample1");
+    ChangedLinesComputer computer = new ChangedLinesComputer(singleton(file));
+
+    new ChangedLinesDiffGenerator(computer).displayFileDiff(file.toString(),
+      write("a\nb\nc\nd\n"), write("a\nx\ny\nc\nd\ne\nf"), "r1", "working copy", null, null, SVNFileUtil.DUMMY_OUT);
+
+    assertThat(computer.changedLines()).isEqualTo(ImmutableMap.of(file, ImmutableSet.of(2, 3, 6, 7)));
+    assertThat(computer.bytes()).isEqualTo(8 + 13);
+  }
+
+  @Test
+  public void add_all_lines_of_added_file() throws IOException, SVNException {
+    Path file = temp.getRoot().toPath().resolve("sample1");
+    ChangedLinesComputer computer = new ChangedLinesComputer(singleton(file));
+
+    new ChangedLinesDiffGenerator(computer).displayFileDiff(file.toString(), null, write("a\nb\n"), "r0", "working copy", null, null,
+      SVNFileUtil.DUMMY_OUT);
+
+    assertThat(computer.changedLines()).isEqualTo(ImmutableMap.of(file, ImmutableSet.of(1, 2)));
+  }
+
+  @Test
+  public void ignore_binary_deleted_and_excluded_files() throws IOException, SVNException {
+    Path file = temp.getRoot().toPath().resolve("sample1");
+    ChangedLinesComputer computer = new ChangedLinesComputer(singleton(file));
+    ChangedLinesDiffGenerator generator = new ChangedLinesDiffGenerator(computer);
+
+    generator.displayFileDiff(file.toString(), write("a\n"), write("b\n"), "r1", "working copy", null, "application/octet-stream",
+      SVNFileUtil.DUMMY_OUT);
+    generator.displayFileDiff(file.toString(), write("a\n"), null, "r1", "working copy", null, null, SVNFileUtil.DUMMY_OUT);
+    generator.displayFileDiff(temp.getRoot().toPath().resolve("other").toString(), write("a\n"), write("b\n"), "r1", "working copy", null,
+      null, SVNFileUtil.DUMMY_OUT);
+
+    assertThat(computer.changedLines()).isEmpty();
+    // transferred anyway
+    assertThat(computer.bytes()).isEqualTo(2 + 2 + 2 + 2 + 2);
+  }
+
+  @Test
+  public void resolve_paths_against_the_diff_target() throws IOException, SVNException {
+    // as displayed by SVNKit when the working directory is the parent of the working copy, not the one of the JVM
+    Path workingCopy = temp.newFolder("wc").toPath();
+    Path file = workingCopy.resolve("sub/sample1");
+    ChangedLinesComputer computer = new ChangedLinesComputer(singleton(file));
+    ChangedLinesDiffGenerator generator = new ChangedLinesDiffGenerator(computer);
+    generator.setTarget(workingCopy.toFile());
+    generator.init("wc", "wc");
+
+    generator.displayFileDiff("wc/sub/sample1", write("a\n"), write("a\nb\n"), "r1", "working copy", null, null, SVNFileUtil.DUMMY_OUT);
+
+    assertThat(computer.changedLines()).isEqualTo(ImmutableMap.of(file, ImmutableSet.of(2)));
+  }
+
+  @Test
+  public void resolve_path_of_a_file_target() throws IOException, SVNException {
+    Path file = temp.getRoot().toPath().resolve("sample1");
+    ChangedLinesComputer computer = new ChangedLinesComputer(singleton(file));
+    ChangedLinesDiffGenerator generator = new ChangedLinesDiffGenerator(computer);
+    generator.setTarget(file.toFile());
+    generator.init("sample1", "sample1");
+
+    generator.displayFileDiff("sample1", write("a\n"), write("b\n"), "r1", "working copy", null, null, SVNFileUtil.DUMMY_OUT);
+
+    assertThat(computer.changedLines()).isEqualTo(ImmutableMap.of(file, ImmutableSet.of(1)));
+  }
+
+  @Test
+  public void add_all_lines_of_files_over_budget() throws IOException, SVNException {
+    Path large = temp.getRoot().toPath().resolve("large");
+    Path small = temp.getRoot().toPath().resolve("small");
+    Path last = temp.getRoot().toPath().resolve("last");
+    ChangedLinesComputer computer = new ChangedLinesComputer(ImmutableSet.of(large, small, last));
+    ChangedLinesDiffGenerator generator = new ChangedLinesDiffGenerator(computer, null, new DiffBudget(20, 30));
+
+    generator.displayFileDiff(large.toString(), write("a\nb\nc\n"), write("a\nb\nc\nd\ne\nf\ng\nh\n"), "r1", "working copy", null, null,
+      SVNFileUtil.DUMMY_OUT);
+    generator.displayFileDiff(small.toString(), write("a\nb\nc\n"), write("a\nb\nx\n"), "r1", "working copy", null, null,
+      SVNFileUtil.DUMMY_OUT);
+    generator.displayFileDiff(last.toString(), write("a\nb\nc\n"), write("a\nb\nc\nd\ne\nf\ng"), "r1", "working copy", null, null,
+      SVNFileUtil.DUMMY_OUT);
+
+    assertThat(computer.changedLines()).isEqualTo(ImmutableMap.of(
+      large, ImmutableSet.of(1, 2, 3, 4, 5, 6, 7, 8, 9),
+      small, ImmutableSet.of(3),
+      last, ImmutableSet.of(1, 2, 3, 4, 5, 6, 7)));
+    assertThat(computer.bytes()).isEqualTo(6 + 16 + 6 + 6 + 6 + 13);
+  }
+
+  @Test
+  public void count_all_lines_like_input_files() throws IOException, SVNException {
+    assertThat(ChangedLinesDiffGenerator.allLines(write(""))).containsExactly(1);
+    assertThat(ChangedLinesDiffGenerator.allLines(write("a"))).containsExactly(1);
+    assertThat(ChangedLinesDiffGenerator.allLines(write("a\nb\n"))).containsExactly(1, 2, 3);
+    assertThat(ChangedLinesDiffGenerator.allLines(write("a\r\nb\r\nc"))).containsExactly(1, 2, 3);
+    assertThat(ChangedLinesDiffGenerator.allLines(write("a\rb\rc\r"))).containsExactly(1, 2, 3, 4);
+    assertThat(ChangedLinesDiffGenerator.allLines(write("a\n\rb\r\r\n"))).containsExactly(1, 2, 3, 4, 5);
+  }
+
+  private File write(String content) throws IOException {
+    File file = temp.newFile();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+}
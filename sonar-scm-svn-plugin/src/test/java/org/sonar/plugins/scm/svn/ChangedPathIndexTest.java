@@ -0,0 +1,122 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChangedPathIndexTest {
+
+  private static final String BRANCH = "svn://host/repo/branches/b1";
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void ignore_changes_of_files_removed_later_or_out_of_directory() {
+    ChangedPathIndex.Entry entry = ChangedPathIndex.Entry.of(Arrays.asList(
+      logEntry(8, file("/b1/a", SVNLogEntryPath.TYPE_DELETED), file("/b1/b", SVNLogEntryPath.TYPE_ADDED), file("/b10/e", SVNLogEntryPath.TYPE_ADDED)),
+      logEntry(7, file("/b1/a", SVNLogEntryPath.TYPE_MODIFIED), file("/b1/c", SVNLogEntryPath.TYPE_MODIFIED),
+        new SVNLogEntryPath("/b1/dir", SVNLogEntryPath.TYPE_ADDED, null, -1, SVNNodeKind.DIR)),
+      logEntry(5, new SVNLogEntryPath("/b1", SVNLogEntryPath.TYPE_ADDED, "/trunk", 4, SVNNodeKind.DIR))), "/b1", 9);
+
+    assertThat(entry.copyRevision()).isEqualTo(5);
+    assertThat(entry.revision()).isEqualTo(9);
+    assertThat(paths(entry.changed())).containsExactlyInAnyOrder("/b1/b", "/b1/c");
+  }
+
+  @Test
+  public void apply_newer_log_entries() {
+    ChangedPathIndex.Entry entry = ChangedPathIndex.Entry.of(Arrays.asList(
+      logEntry(7, file("/b1/a", SVNLogEntryPath.TYPE_MODIFIED), file("/b1/c", SVNLogEntryPath.TYPE_DELETED)),
+      logEntry(6, file("/b1/b", SVNLogEntryPath.TYPE_ADDED), file("/b1/c", SVNLogEntryPath.TYPE_MODIFIED)),
+      logEntry(5, new SVNLogEntryPath("/b1", SVNLogEntryPath.TYPE_ADDED, "/trunk", 4, SVNNodeKind.DIR))), "/b1", 7);
+
+    ChangedPathIndex.Entry applied = entry.apply(Arrays.asList(
+      logEntry(10, file("/b1/b", SVNLogEntryPath.TYPE_DELETED), file("/b1/d", SVNLogEntryPath.TYPE_ADDED)),
+      logEntry(9, file("/b1/c", SVNLogEntryPath.TYPE_ADDED))), "/b1", 11);
+
+    assertThat(applied.copyRevision()).isEqualTo(5);
+    assertThat(applied.revision()).isEqualTo(11);
+    assertThat(paths(applied.changed())).containsExactlyInAnyOrder("/b1/a", "/b1/c", "/b1/d");
+    assertThat(paths(entry.changed())).containsExactlyInAnyOrder("/b1/a", "/b1/b");
+    assertThat(paths(entry.apply(Collections.emptyList(), "/b1", 12).changed())).containsExactlyInAnyOrder("/b1/a", "/b1/b");
+  }
+
+  @Test
+  public void save_and_load() throws IOException {
+    Path file = temp.getRoot().toPath().resolve("sub/index.bin");
+    ChangedPathIndex index = new ChangedPathIndex(file);
+    index.put(BRANCH, ChangedPathIndex.Entry.of(Arrays.asList(
+      logEntry(7, file("/b1/a", SVNLogEntryPath.TYPE_MODIFIED), file("/b1/c", SVNLogEntryPath.TYPE_DELETED)),
+      logEntry(6, file("/b1/c", SVNLogEntryPath.TYPE_ADDED))), "/b1", 8));
+    index.save();
+
+    ChangedPathIndex loaded = ChangedPathIndex.load(file);
+    assertThat(loaded.get("svn://host/repo/branches/other")).isNull();
+    ChangedPathIndex.Entry entry = loaded.get(BRANCH);
+    assertThat(entry.copyRevision()).isEqualTo(6);
+    assertThat(entry.revision()).isEqualTo(8);
+    assertThat(paths(entry.changed())).containsExactly("/b1/a");
+  }
+
+  @Test
+  public void ignore_invalid_index() throws IOException {
+    Path file = temp.newFile().toPath();
+    Files.write(file, new byte[] {1, 2, 3});
+
+    assertThat(ChangedPathIndex.load(file).get(BRANCH)).isNull();
+    assertThat(ChangedPathIndex.load(temp.getRoot().toPath().resolve("missing.bin")).get(BRANCH)).isNull();
+  }
+
+  private static List<String> paths(PathTrie trie) {
+    List<String> paths = new ArrayList<>();
+    trie.forEach(paths::add);
+    return paths;
+  }
+
+  private static SVNLogEntryPath file(String path, char type) {
+    return new SVNLogEntryPath(path, type, null, -1, SVNNodeKind.FILE);
+  }
+
+  private static SVNLogEntry logEntry(long revision, SVNLogEntryPath... paths) {
+    Map<String, SVNLogEntryPath> changedPaths = new HashMap<>();
+    for (SVNLogEntryPath path : paths) {
+      changedPaths.put(path.getPath(), path);
+    }
+    return new SVNLogEntry(changedPaths, revision, "author", new Date(), "message");
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import org.sonar.api.internal.google.common.collect.ImmutableSet;
+import org.tmatesoft.svn.core.SVNException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+public class DiffPipelineTest {
+
+  private final Path rootBaseDir = Paths.get("/foo");
+
+  @Test
+  public void compare_all_submitted_contents() throws SVNException {
+    Set<Path> files = new HashSet<>();
+    for (int i = 0; i < 50; i++) {
+      files.add(rootBaseDir.resolve("file" + i));
+    }
+    ChangedLinesComputer computer = new ChangedLinesComputer(files);
+
+    // each submission is larger than the capacity, so it waits for the previous one to be compared
+    try (DiffPipeline pipeline = new DiffPipeline(computer, 1)) {
+      for (int i = 0; i < 50; i++) {
+        pipeline.submit(rootBaseDir.resolve("file" + i), bytes("a\nb\n"), bytes("a\nx\nb\n" + i + "\n"));
+      }
+      pipeline.finish();
+    }
+    assertThat(computer.changedLines()).hasSize(50);
+
+    // files compared in parallel
+    computer = new ChangedLinesComputer(files);
+    try (DiffPipeline pipeline = new DiffPipeline(computer, DiffPipeline.DEFAULT_CAPACITY, 4)) {
+      for (int i = 0; i < 50; i++) {
+        pipeline.submit(rootBaseDir.resolve("file" + i), bytes("a\nb\n"), bytes("a\nx\nb\n" + i + "\n"));
+      }
+      pipeline.submit(rootBaseDir.resolve("file0"), null, bytes("c\n"));
+      pipeline.finish();
+    }
+
+    assertThat(computer.changedLines()).hasSize(50);
+    assertThat(computer.changedLines().get(rootBaseDir.resolve("file1"))).isEqualTo(ImmutableSet.of(2, 4));
+    assertThat(computer.changedLines().get(rootBaseDir.resolve("file0"))).isEqualTo(ImmutableSet.of(1, 2, 4));
+  }
+
+  @Test
+  public void fail_when_comparison_fails() throws SVNException {
+    ChangedLinesComputer computer = mock(ChangedLinesComputer.class);
+    doThrow(new IllegalStateException("crash")).when(computer).addFile(any(Path.class), any(LineRanges.class));
+
+    try (DiffPipeline pipeline = new DiffPipeline(computer, DiffPipeline.DEFAULT_CAPACITY)) {
+      pipeline.submit(rootBaseDir.resolve("file"), null, bytes("a\n"));
+      assertThatThrownBy(pipeline::finish).isInstanceOf(SVNException.class).hasMessageContaining("crash");
+    }
+  }
+
+  @Test
+  public void wait_for_comparisons_in_flight_on_close() throws Exception {
+    ChangedLinesComputer computer = mock(ChangedLinesComputer.class);
+    CountDownLatch started = new CountDownLatch(1);
+    AtomicBoolean compared = new AtomicBoolean();
+    doAnswer(invocation -> {
+      started.countDown();
+      Thread.sleep(200);
+      compared.set(true);
+      return null;
+    }).when(computer).addFile(any(Path.class), any(LineRanges.class));
+
+    DiffPipeline pipeline = new DiffPipeline(computer, DiffPipeline.DEFAULT_CAPACITY, 1);
+    pipeline.submit(rootBaseDir.resolve("file"), null, bytes("a\n"));
+    started.await();
+    pipeline.close();
+    assertThat(compared).isTrue();
+  }
+
+  private static byte[] bytes(String content) {
+    return content.getBytes(StandardCharsets.UTF_8);
+  }
+}
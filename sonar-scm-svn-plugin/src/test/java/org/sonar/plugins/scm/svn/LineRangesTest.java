@@ -0,0 +1,96 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Test;
+import org.sonar.api.internal.google.common.collect.ImmutableSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LineRangesTest {
+
+  @Test
+  public void store_consecutive_lines_as_ranges() {
+    LineRanges lines = new LineRanges();
+    for (int line : new int[] {2, 3, 4, 7, 8, 11, 11}) {
+      lines.addLine(line);
+    }
+
+    assertThat(lines.rangeCount()).isEqualTo(3);
+    assertThat(lines).hasSize(6).containsExactly(2, 3, 4, 7, 8, 11);
+    assertThat(lines.contains(5)).isFalse();
+    assertThat(lines.contains("2")).isFalse();
+    assertThat(lines).isEqualTo(ImmutableSet.of(2, 3, 4, 7, 8, 11));
+    assertThat(lines.hashCode()).isEqualTo(ImmutableSet.of(2, 3, 4, 7, 8, 11).hashCode());
+  }
+
+  @Test
+  public void add_lines_in_any_order() {
+    LineRanges lines = new LineRanges();
+    for (int line : new int[] {10, 5, 7, 6, 12, 11, 1, 7, 3, 2}) {
+      lines.addLine(line);
+    }
+
+    assertThat(lines).containsExactly(1, 2, 3, 5, 6, 7, 10, 11, 12);
+    assertThat(lines.rangeCount()).isEqualTo(3);
+
+    List<Integer> shuffled = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      shuffled.add(i % 3 == 0 ? i / 2 : i);
+    }
+    Collections.shuffle(shuffled, new Random(42));
+    LineRanges random = new LineRanges();
+    shuffled.forEach(random::addLine);
+    assertThat(random).containsExactlyElementsOf(new TreeSet<>(shuffled));
+  }
+
+  @Test
+  public void add_runs_of_lines() {
+    LineRanges lines = new LineRanges();
+    lines.addLines(3, 5);
+    lines.addLines(9, 9);
+    lines.addLines(6, 7);
+    lines.addLines(1, 4);
+
+    assertThat(lines).containsExactly(1, 2, 3, 4, 5, 6, 7, 9);
+    assertThat(lines.rangeCount()).isEqualTo(2);
+
+    LineRanges other = new LineRanges();
+    other.addLines(8, 8);
+    other.addLines(12, 13);
+    assertThat(lines.union(other)).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 12, 13);
+    assertThat(lines.rangeCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void be_read_only() {
+    LineRanges lines = new LineRanges();
+    lines.addLine(1);
+
+    assertThatThrownBy(() -> lines.add(2)).isInstanceOf(UnsupportedOperationException.class);
+    assertThat(new LineRanges()).isEmpty();
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PathTrieTest {
+
+  @Test
+  public void add_and_contains() {
+    PathTrie trie = new PathTrie();
+    assertThat(trie.add("/b1/src/A.java")).isTrue();
+    assertThat(trie.add("/b1/src/B.java")).isTrue();
+    assertThat(trie.add("/b1/src/A.java")).isFalse();
+    assertThat(trie.add("/b1/src")).isTrue();
+
+    assertThat(trie.size()).isEqualTo(3);
+    assertThat(trie.contains("/b1/src/A.java")).isTrue();
+    assertThat(trie.contains("/b1/src")).isTrue();
+    assertThat(trie.contains("/b1")).isFalse();
+    assertThat(trie.contains("/b1/src/C.java")).isFalse();
+    assertThat(trie.contains("/b2/src/A.java")).isFalse();
+    assertThat(paths(trie)).containsExactlyInAnyOrder("/b1/src/A.java", "/b1/src/B.java", "/b1/src");
+  }
+
+  @Test
+  public void many_children() {
+    PathTrie trie = new PathTrie();
+    for (int i = 0; i < 1000; i++) {
+      trie.add("/b1/F" + i + ".java");
+    }
+    assertThat(trie.size()).isEqualTo(1000);
+    for (int i = 0; i < 1000; i++) {
+      assertThat(trie.contains("/b1/F" + i + ".java")).isTrue();
+    }
+    assertThat(trie.contains("/b1/F1000.java")).isFalse();
+  }
+
+  @Test
+  public void relative_paths() {
+    PathTrie trie = new PathTrie();
+    trie.add("/b1/module/src/A.java");
+    trie.add("/b1/other/B.java");
+    trie.add("/b1/C.java");
+    trie.add("/b2/module/D.java");
+
+    List<String> paths = new ArrayList<>();
+    trie.forEachRelative("/b1/module", paths::add);
+    assertThat(paths).containsExactlyInAnyOrder("src/A.java", "../other/B.java", "../C.java", "../../b2/module/D.java");
+
+    paths.clear();
+    trie.forEachRelative("/", paths::add);
+    assertThat(paths).containsExactlyInAnyOrder("b1/module/src/A.java", "b1/other/B.java", "b1/C.java", "b2/module/D.java");
+  }
+
+  @Test
+  public void add_all_except_excluded() {
+    PathTrie trie = new PathTrie();
+    trie.add("/b1/a");
+    PathTrie other = new PathTrie();
+    other.add("/b1/b");
+    other.add("/b1/c");
+    other.add("/b1/dir/d");
+    PathTrie excluded = new PathTrie();
+    excluded.add("/b1/c");
+    excluded.add("/b1/dir");
+
+    trie.addAll(other, excluded);
+
+    assertThat(trie.size()).isEqualTo(3);
+    assertThat(paths(trie)).containsExactlyInAnyOrder("/b1/a", "/b1/b", "/b1/dir/d");
+  }
+
+  @Test
+  public void write_and_read() throws IOException {
+    PathTrie trie = new PathTrie();
+    trie.add("/b1/src/A.java");
+    trie.add("/b1/src");
+    trie.add("/b1/test/ATest.java");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    trie.write(new DataOutputStream(bytes));
+
+    PathTrie read = new PathTrie();
+    read.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertThat(read.size()).isEqualTo(3);
+    assertThat(paths(read)).containsExactlyInAnyOrder("/b1/src/A.java", "/b1/src", "/b1/test/ATest.java");
+  }
+
+  @Test
+  public void fail_to_read_invalid_segment() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF("");
+    out.writeBoolean(false);
+    out.writeInt(1);
+    out.writeUTF("a/b");
+
+    assertThatThrownBy(() -> new PathTrie().read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))))
+      .isInstanceOf(IOException.class);
+  }
+
+  private static List<String> paths(PathTrie trie) {
+    List<String> paths = new ArrayList<>();
+    trie.forEach(paths::add);
+    return paths;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tmatesoft.svn.core.ISVNLogEntryHandler;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+import org.tmatesoft.svn.core.wc.SVNLogClient;
+import org.tmatesoft.svn.core.wc.SVNRevision;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class RevisionLogTest {
+
+  @ClassRule
+  public static TemporaryFolder temp = new TemporaryFolder();
+
+  private static Path trunk;
+  private static Path b1;
+
+  private SVNClientManager clientManager;
+  private SVNLogClient logClient;
+
+  @BeforeClass
+  public static void before() throws IOException, SVNException {
+    SvnTester svnTester = new SvnTester(temp.newFolder().toPath());
+
+    // r3 and r4 in trunk
+    trunk = temp.newFolder("trunk").toPath();
+    svnTester.checkout(trunk, "trunk");
+    svnTester.createFile(trunk, "a.xoo");
+    svnTester.add(trunk, "a.xoo");
+    svnTester.commit(trunk);
+    svnTester.appendToFile(trunk, "a.xoo");
+    svnTester.commit(trunk);
+    svnTester.update(trunk);
+
+    // b1 copied from trunk in r5, then r6 and r7
+    svnTester.createBranch("b1");
+    b1 = temp.newFolder("branches", "b1").toPath();
+    svnTester.checkout(b1, "branches/b1");
+    svnTester.createFile(b1, "b.xoo");
+    svnTester.add(b1, "b.xoo");
+    svnTester.commit(b1);
+    svnTester.appendToFile(b1, "b.xoo");
+    svnTester.commit(b1);
+    svnTester.update(b1);
+  }
+
+  @Before
+  public void prepare() {
+    clientManager = spy(SVNClientManager.newInstance());
+    logClient = spy(clientManager.getLogClient());
+    doReturn(logClient).when(clientManager).getLogClient();
+  }
+
+  @Test
+  public void fetch_history_from_base_once() throws SVNException {
+    RevisionLog revisionLog = new RevisionLog();
+    assertThat(revisions(revisionLog.history(clientManager, b1.toFile()))).containsExactly(7L, 6L, 5L);
+    assertThat(revisions(revisionLog.history(clientManager, b1.toFile()))).containsExactly(7L, 6L, 5L);
+    verifyLogs(1);
+  }
+
+  @Test
+  public void serve_older_history_of_same_location_from_memory() throws SVNException {
+    RevisionLog revisionLog = new RevisionLog();
+    revisionLog.history(clientManager, b1.toFile());
+    assertThat(revisions(revisionLog.history(clientManager, b1.toFile(), 6))).containsExactly(6L, 5L);
+    verifyLogs(1);
+  }
+
+  @Test
+  public void fetch_history_below_copy_point() throws SVNException {
+    RevisionLog revisionLog = new RevisionLog();
+    revisionLog.history(clientManager, b1.toFile());
+    assertThat(revisions(revisionLog.history(clientManager, b1.toFile(), 4))).containsExactly(4L, 3L, 1L);
+    verifyLogs(2);
+  }
+
+  @Test
+  public void only_fetch_revisions_above_known_history() throws SVNException {
+    RevisionLog revisionLog = new RevisionLog();
+    assertThat(revisions(revisionLog.history(clientManager, trunk.toFile(), 3))).containsExactly(3L, 1L);
+    assertThat(revisions(revisionLog.history(clientManager, trunk.toFile()))).containsExactly(4L, 3L, 1L);
+    verifyLogs(2);
+    verify(logClient).doLog(any(File[].class), eq(SVNRevision.create(4)), eq(SVNRevision.create(4)), anyBoolean(), anyBoolean(), anyLong(),
+      any(ISVNLogEntryHandler.class));
+  }
+
+  private void verifyLogs(int count) throws SVNException {
+    verify(logClient, times(count)).doLog(any(File[].class), any(SVNRevision.class), any(SVNRevision.class), anyBoolean(), anyBoolean(),
+      anyLong(), any(ISVNLogEntryHandler.class));
+  }
+
+  private static List<Long> revisions(List<SVNLogEntry> entries) {
+    return entries.stream().map(SVNLogEntry::getRevision).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StatusSnapshotTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final SVNClientManager clientManager = SVNClientManager.newInstance();
+
+  @Test
+  public void collect_status_of_all_files() throws IOException, SVNException {
+    SvnTester svnTester = new SvnTester(temp.newFolder().toPath());
+    Path trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    Files.createDirectories(trunk.resolve("sub"));
+    svnTester.createFile(trunk, "sub/committed.txt");
+    svnTester.createFile(trunk, "modified.txt");
+    svnTester.add(trunk, "sub");
+    svnTester.add(trunk, "modified.txt");
+    svnTester.commit(trunk);
+    svnTester.appendToFile(trunk, "modified.txt");
+    svnTester.createFile(trunk, "unversioned.txt");
+    Files.createDirectories(trunk.resolve("unversioned"));
+    svnTester.createFile(trunk, "unversioned/file.txt");
+
+    StatusSnapshot snapshot = StatusSnapshot.take(clientManager, trunk.toFile());
+
+    StatusSnapshot.FileStatus committed = snapshot.get(trunk.resolve("sub/committed.txt").toFile());
+    assertThat(committed.isUnmodified()).isTrue();
+    assertThat(committed.repositoryPath()).isEqualTo("trunk/sub/committed.txt");
+    assertThat(committed.committedRevision()).isEqualTo(3);
+    assertThat(committed.checksum(trunk.resolve("sub/committed.txt").toFile())).startsWith("$sha1$");
+    assertThat(snapshot.get(trunk.resolve("sub/../sub/committed.txt").toFile())).isNotNull();
+    // size differs from the recorded one, status is left to SVN
+    assertThat(snapshot.get(trunk.resolve("modified.txt").toFile())).isNull();
+    assertThat(snapshot.get(trunk.resolve("unversioned.txt").toFile())).isNull();
+    assertThat(snapshot.get(trunk.resolve("unversioned/file.txt").toFile())).isNull();
+    assertThat(snapshot.get(trunk.resolve("missing.txt").toFile())).isNull();
+  }
+
+  @Test
+  public void empty_snapshot_outside_of_working_copy() throws IOException, SVNException {
+    assertThat(StatusSnapshot.take(clientManager, temp.newFolder()).size()).isZero();
+  }
+}
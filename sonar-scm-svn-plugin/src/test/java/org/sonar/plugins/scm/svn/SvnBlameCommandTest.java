@@ -21,14 +21,17 @@ package org.sonar.plugins.scm.svn;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import org.junit.Before;
@@ -47,7 +50,12 @@ import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
 import org.sonar.api.batch.scm.BlameCommand.BlameInput;
 import org.sonar.api.batch.scm.BlameCommand.BlameOutput;
 import org.sonar.api.batch.scm.BlameLine;
+import org.tmatesoft.svn.core.SVNAuthenticationException;
+import org.tmatesoft.svn.core.SVNCancelException;
 import org.tmatesoft.svn.core.SVNDepth;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.auth.ISVNAuthenticationManager;
 import org.tmatesoft.svn.core.internal.wc2.compat.SvnCodec;
@@ -60,9 +68,14 @@ import org.tmatesoft.svn.core.wc2.SvnCheckout;
 import org.tmatesoft.svn.core.wc2.SvnTarget;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
@@ -234,6 +247,300 @@ public class SvnBlameCommandTest {
       new BlameLine().date(commitDate).revision("2").author("dgageot"));
   }
 
+  @Test
+  public void blame_files_in_parallel() throws Exception {
+    File repoDir = unzip("repo-svn.zip");
+
+    String scmUrl = "file:///" + unixPath(new File(repoDir, "repo-svn"));
+    File baseDir = new File(checkout(scmUrl), "dummy-svn");
+
+    when(fs.baseDir()).thenReturn(baseDir);
+    DefaultInputFile inputFile = new TestInputFileBuilder("foo", DUMMY_JAVA)
+      .setLines(27)
+      .setModuleBaseDir(baseDir.toPath())
+      .build();
+    String relativePath = "src/main/java/org/dummy/Dummy2.java";
+    DefaultInputFile uncommittedFile = new TestInputFileBuilder("foo", relativePath)
+      .setLines(2)
+      .setModuleBaseDir(baseDir.toPath())
+      .build();
+    Files.write(baseDir.toPath().resolve(relativePath), "package org.dummy;\npublic class Dummy2 {}".getBytes());
+
+    BlameOutput blameResult = mock(BlameOutput.class);
+    when(input.filesToBlame()).thenReturn(Arrays.<InputFile>asList(inputFile, uncommittedFile));
+
+    SvnConfiguration configuration = mock(SvnConfiguration.class);
+    when(configuration.blameThreads()).thenReturn(4);
+    new SvnBlameCommand(configuration).blame(input, blameResult);
+
+    ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+    verify(blameResult).blameResult(eq(inputFile), captor.capture());
+    verifyNoMoreInteractions(blameResult);
+    List<BlameLine> result = captor.getValue();
+    assertThat(result).hasSize(27);
+    assertThat(result).containsOnly(new BlameLine().date(new Date(1342691097393L)).revision("2").author("dgageot"));
+  }
+
+  @Test
+  public void blame_in_parallel_should_surface_errors() throws Exception {
+    File repoDir = unzip("repo-svn.zip");
+
+    String scmUrl = "file:///" + unixPath(new File(repoDir, "repo-svn"));
+    File baseDir = new File(checkout(scmUrl), "dummy-svn");
+
+    when(fs.baseDir()).thenReturn(baseDir);
+    DefaultInputFile inputFile = new TestInputFileBuilder("foo", DUMMY_JAVA)
+      .setLines(27)
+      .setModuleBaseDir(baseDir.toPath())
+      .build();
+
+    BlameOutput blameResult = mock(BlameOutput.class);
+    doThrow(new IllegalStateException("crash")).when(blameResult).blameResult(eq(inputFile), anyList());
+    when(input.filesToBlame()).thenReturn(Arrays.<InputFile>asList(inputFile));
+
+    SvnConfiguration configuration = mock(SvnConfiguration.class);
+    when(configuration.blameThreads()).thenReturn(2);
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("crash");
+    new SvnBlameCommand(configuration).blame(input, blameResult);
+  }
+
+  @Test
+  public void blame_from_cache_when_file_did_not_change() throws Exception {
+    File repoDir = unzip("repo-svn.zip");
+
+    String scmUrl = "file:///" + unixPath(new File(repoDir, "repo-svn"));
+    File baseDir = new File(checkout(scmUrl), "dummy-svn");
+
+    when(fs.baseDir()).thenReturn(baseDir);
+    DefaultInputFile inputFile = new TestInputFileBuilder("foo", DUMMY_JAVA)
+      .setLines(27)
+      .setModuleBaseDir(baseDir.toPath())
+      .build();
+    when(input.filesToBlame()).thenReturn(Arrays.<InputFile>asList(inputFile));
+
+    SvnConfiguration configuration = mock(SvnConfiguration.class);
+    when(configuration.blameCacheEnabled()).thenReturn(true);
+    when(configuration.blameCacheMaxSize()).thenReturn(Long.MAX_VALUE);
+    when(configuration.cacheDirectory()).thenReturn(temp.newFolder().toPath());
+
+    BlameOutput firstResult = mock(BlameOutput.class);
+    new SvnBlameCommand(configuration).blame(input, firstResult);
+    ArgumentCaptor<List> firstCaptor = ArgumentCaptor.forClass(List.class);
+    verify(firstResult).blameResult(eq(inputFile), firstCaptor.capture());
+
+    // the repository is not reachable anymore
+    deleteRecursively(repoDir.toPath());
+
+    BlameOutput secondResult = mock(BlameOutput.class);
+    new SvnBlameCommand(configuration).blame(input, secondResult);
+    ArgumentCaptor<List> secondCaptor = ArgumentCaptor.forClass(List.class);
+    verify(secondResult).blameResult(eq(inputFile), secondCaptor.capture());
+    assertThat(secondCaptor.getValue()).hasSize(27).isEqualTo(firstCaptor.getValue());
+  }
+
+  @Test
+  public void extend_cached_blame_of_older_revision() throws Exception {
+    SvnTester svnTester = new SvnTester(temp.newFolder().toPath());
+    Path trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    svnTester.createFile(trunk, "file.txt", "a\nb\n  c\nb\n");
+    svnTester.add(trunk, "file.txt");
+    svnTester.commit(trunk);
+
+    SvnConfiguration configuration = mock(SvnConfiguration.class);
+    when(configuration.blameCacheEnabled()).thenReturn(true);
+    when(configuration.blameCacheMaxSize()).thenReturn(Long.MAX_VALUE);
+    when(configuration.cacheDirectory()).thenReturn(temp.newFolder().toPath());
+
+    File baseDir = checkout(svnTester.url("trunk").toString());
+    blameFile(new SvnBlameCommand(configuration), baseDir, "file.txt", 5);
+
+    // whitespace changes are ignored by blame
+    svnTester.createFile(trunk, "file.txt", "a\nB\nc\nb\nd\n");
+    svnTester.commit(trunk);
+
+    baseDir = checkout(svnTester.url("trunk").toString());
+    List<BlameLine> extended = blameFile(new SvnBlameCommand(configuration), baseDir, "file.txt", 6);
+    List<BlameLine> full = blameFile(newSvnBlameCommand(), baseDir, "file.txt", 6);
+
+    assertThat(extended).isEqualTo(full);
+    assertThat(extended).extracting(BlameLine::revision).containsExactly("3", "4", "3", "3", "4", "4");
+  }
+
+  @Test
+  public void extend_cached_blame_with_duplicate_lines() throws Exception {
+    SvnTester svnTester = new SvnTester(temp.newFolder().toPath());
+    Path trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    svnTester.createFile(trunk, "file.txt", "X\n");
+    svnTester.add(trunk, "file.txt");
+    svnTester.commit(trunk);
+    svnTester.createFile(trunk, "file.txt", "X\n}\n");
+    svnTester.commit(trunk);
+    svnTester.createFile(trunk, "file.txt", "X\n}\n}\n");
+    svnTester.commit(trunk);
+
+    SvnConfiguration configuration = mock(SvnConfiguration.class);
+    when(configuration.blameCacheEnabled()).thenReturn(true);
+    when(configuration.blameCacheMaxSize()).thenReturn(Long.MAX_VALUE);
+    when(configuration.cacheDirectory()).thenReturn(temp.newFolder().toPath());
+
+    File baseDir = checkout(svnTester.url("trunk").toString());
+    assertThat(blameFile(new SvnBlameCommand(configuration), baseDir, "file.txt", 4)).extracting(BlameLine::revision)
+      .containsExactly("3", "4", "5", "5");
+
+    // the first two lines are removed
+    svnTester.createFile(trunk, "file.txt", "}\n");
+    svnTester.commit(trunk);
+
+    baseDir = checkout(svnTester.url("trunk").toString());
+    List<BlameLine> extended = blameFile(new SvnBlameCommand(configuration), baseDir, "file.txt", 2);
+    List<BlameLine> full = blameFile(newSvnBlameCommand(), baseDir, "file.txt", 2);
+
+    assertThat(extended).isEqualTo(full);
+    assertThat(extended).extracting(BlameLine::revision).containsExactly("5", "5");
+  }
+
+  @Test
+  public void attribute_lines_older_than_start_revision_to_it() throws Exception {
+    SvnTester svnTester = new SvnTester(temp.newFolder().toPath());
+    Path trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    svnTester.createFile(trunk, "file.txt", "a\nb\n");
+    svnTester.add(trunk, "file.txt");
+    svnTester.commit(trunk);
+    svnTester.createFile(trunk, "file.txt", "a\nc\n");
+    svnTester.commit(trunk);
+    svnTester.createFile(trunk, "file.txt", "a\nc\nd\n");
+    svnTester.commit(trunk);
+
+    SvnConfiguration configuration = mock(SvnConfiguration.class);
+    when(configuration.blameStartRevision()).thenReturn("4");
+    when(configuration.blameCacheEnabled()).thenReturn(true);
+    when(configuration.blameCacheMaxSize()).thenReturn(Long.MAX_VALUE);
+    when(configuration.cacheDirectory()).thenReturn(temp.newFolder().toPath());
+
+    File baseDir = checkout(svnTester.url("trunk").toString());
+    List<BlameLine> full = blameFile(newSvnBlameCommand(), baseDir, "file.txt", 4);
+    List<BlameLine> bounded = blameFile(new SvnBlameCommand(configuration), baseDir, "file.txt", 4);
+
+    assertThat(full).extracting(BlameLine::revision).containsExactly("3", "4", "5", "5");
+    assertThat(bounded).containsExactly(full.get(1), full.get(1), full.get(2), full.get(3));
+
+    // the cached blame is only served for the same start revision
+    when(configuration.blameStartRevision()).thenReturn(null);
+    assertThat(blameFile(new SvnBlameCommand(configuration), baseDir, "file.txt", 4)).isEqualTo(full);
+  }
+
+  @Test
+  public void start_blame_at_fork_point() throws Exception {
+    SvnTester svnTester = new SvnTester(temp.newFolder().toPath());
+    Path trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    svnTester.createFile(trunk, "file.txt", "a\n");
+    svnTester.add(trunk, "file.txt");
+    svnTester.commit(trunk);
+    svnTester.createFile(trunk, "file.txt", "a\nb\n");
+    svnTester.commit(trunk);
+    svnTester.createBranch("b1");
+    Path branch = temp.newFolder().toPath();
+    svnTester.checkout(branch, "branches/b1");
+    svnTester.createFile(branch, "file.txt", "a\nb\nc\n");
+    svnTester.commit(branch);
+
+    SvnConfiguration configuration = mock(SvnConfiguration.class);
+    when(configuration.blameStartRevision()).thenReturn("fork:trunk");
+
+    File baseDir = checkout(svnTester.url("branches/b1").toString());
+    List<BlameLine> lines = blameFile(new SvnBlameCommand(configuration), baseDir, "file.txt", 4);
+
+    assertThat(lines).extracting(BlameLine::revision).containsExactly("4", "4", "6", "6");
+  }
+
+  @Test
+  public void blame_in_memory_like_svnkit() throws Exception {
+    SvnConfiguration configuration = mock(SvnConfiguration.class);
+    when(configuration.blameInMemory()).thenReturn(true);
+
+    File repoDir = unzip("repo-svn.zip");
+    File baseDir = new File(checkout("file:///" + unixPath(new File(repoDir, "repo-svn"))), "dummy-svn");
+    assertThat(blameFile(new SvnBlameCommand(configuration), baseDir, DUMMY_JAVA, 27))
+      .isEqualTo(blameFile(newSvnBlameCommand(), baseDir, DUMMY_JAVA, 27));
+
+    repoDir = unzip("repo-svn-with-merge.zip");
+    baseDir = new File(checkout("file:///" + unixPath(new File(repoDir, "repo-svn"))), "dummy-svn/trunk");
+    List<BlameLine> lines = blameFile(new SvnBlameCommand(configuration), baseDir, DUMMY_JAVA, 27);
+    assertThat(lines).isEqualTo(blameFile(newSvnBlameCommand(), baseDir, DUMMY_JAVA, 27));
+    assertThat(lines).extracting(BlameLine::revision).contains("6");
+  }
+
+  @Test
+  public void skip_file_exceeding_blame_timeout() throws Exception {
+    File repoDir = unzip("repo-svn-with-merge.zip");
+    File baseDir = new File(checkout("file:///" + unixPath(new File(repoDir, "repo-svn"))), "dummy-svn/trunk");
+    when(fs.baseDir()).thenReturn(baseDir);
+    DefaultInputFile inputFile = new TestInputFileBuilder("foo", DUMMY_JAVA)
+      .setLines(27)
+      .setModuleBaseDir(baseDir.toPath())
+      .build();
+    when(input.filesToBlame()).thenReturn(Arrays.<InputFile>asList(inputFile));
+
+    SvnConfiguration configuration = mock(SvnConfiguration.class);
+    when(configuration.blameFileTimeout()).thenReturn(1L);
+    BlameOutput blameResult = mock(BlameOutput.class);
+    new SvnBlameCommand(configuration).blame(input, blameResult);
+
+    verifyZeroInteractions(blameResult);
+  }
+
+  @Test
+  public void only_blame_cached_files_once_blame_timeout_is_exceeded() throws Exception {
+    SvnTester svnTester = new SvnTester(temp.newFolder().toPath());
+    Path trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    svnTester.createFile(trunk, "a.txt", "a\n");
+    svnTester.createFile(trunk, "b.txt", "b\n");
+    svnTester.add(trunk, "a.txt");
+    svnTester.add(trunk, "b.txt");
+    svnTester.commit(trunk);
+
+    SvnConfiguration configuration = mock(SvnConfiguration.class);
+    when(configuration.blameCacheEnabled()).thenReturn(true);
+    when(configuration.blameCacheMaxSize()).thenReturn(Long.MAX_VALUE);
+    when(configuration.cacheDirectory()).thenReturn(temp.newFolder().toPath());
+    File baseDir = checkout(svnTester.url("trunk").toString());
+    List<BlameLine> cached = blameFile(new SvnBlameCommand(configuration), baseDir, "a.txt", 2);
+
+    when(configuration.blameTotalTimeout()).thenReturn(1L);
+    when(fs.baseDir()).thenReturn(baseDir);
+    DefaultInputFile a = new TestInputFileBuilder("foo", "a.txt").setLines(2).setModuleBaseDir(baseDir.toPath()).build();
+    DefaultInputFile b = new TestInputFileBuilder("foo", "b.txt").setLines(2).setModuleBaseDir(baseDir.toPath()).build();
+    when(input.filesToBlame()).thenReturn(Arrays.<InputFile>asList(a, b));
+    BlameOutput blameResult = mock(BlameOutput.class);
+    // status of the working copy alone takes more than the time limit
+    new SvnBlameCommand(configuration).blame(input, blameResult);
+
+    verify(blameResult).blameResult(a, cached);
+    verifyNoMoreInteractions(blameResult);
+  }
+
+  private List<BlameLine> blameFile(SvnBlameCommand blameCommand, File baseDir, String relativePath, int lines) {
+    when(fs.baseDir()).thenReturn(baseDir);
+    DefaultInputFile inputFile = new TestInputFileBuilder("foo", relativePath)
+      .setLines(lines)
+      .setModuleBaseDir(baseDir.toPath())
+      .build();
+    when(input.filesToBlame()).thenReturn(Arrays.<InputFile>asList(inputFile));
+
+    BlameOutput blameResult = mock(BlameOutput.class);
+    blameCommand.blame(input, blameResult);
+    ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+    verify(blameResult).blameResult(eq(inputFile), captor.capture());
+    return captor.getValue();
+  }
+
   @Test
   public void shouldNotFailIfFileContainsLocalModification() throws Exception {
     File repoDir = unzip("repo-svn.zip");
@@ -325,6 +632,58 @@ public class SvnBlameCommandTest {
     verifyZeroInteractions(blameResult);
   }
 
+  @Test
+  public void server_errors_mean_overload() {
+    assertThat(SvnBlameCommand.isOverload(new SVNException(SVNErrorMessage.create(SVNErrorCode.RA_DAV_REQUEST_FAILED)))).isTrue();
+    assertThat(SvnBlameCommand.isOverload(new SVNException(SVNErrorMessage.create(SVNErrorCode.RA_SVN_CONNECTION_CLOSED)))).isTrue();
+    assertThat(SvnBlameCommand.isOverload(new SVNException(SVNErrorMessage.create(SVNErrorCode.UNKNOWN), new SocketTimeoutException())))
+      .isFalse();
+    assertThat(SvnBlameCommand.isOverload(new SVNException(SVNErrorMessage.create(SVNErrorCode.IO_ERROR)))).isFalse();
+    assertThat(SvnBlameCommand.isOverload(new SVNException(SVNErrorMessage.create(SVNErrorCode.FS_NOT_FOUND)))).isFalse();
+    assertThat(SvnBlameCommand.isOverload(new SVNAuthenticationException(SVNErrorMessage.create(SVNErrorCode.RA_NOT_AUTHORIZED)))).isFalse();
+    assertThat(SvnBlameCommand.isOverload(new SVNCancelException(SVNErrorMessage.create(SVNErrorCode.CANCELLED)))).isFalse();
+  }
+
+  @Test
+  public void annotate_again_at_lower_concurrency_after_server_overload() throws Exception {
+    BlameConcurrencyLimiter limiter = new BlameConcurrencyLimiter(4);
+    BlameSession session = mock(BlameSession.class);
+    File file = new File("Foo.java");
+    AnnotationHandler handler = new AnnotationHandler();
+    when(session.annotate(file, null, BlameStartRevision.wholeHistory()))
+      .thenThrow(new SVNException(SVNErrorMessage.create(SVNErrorCode.RA_DAV_REQUEST_FAILED)))
+      .thenReturn(handler);
+
+    assertThat(SvnBlameCommand.annotate(limiter, session, file, null, BlameStartRevision.wholeHistory())).isSameAs(handler);
+    assertThat(limiter.limit()).isEqualTo(2);
+    verify(session, times(2)).annotate(file, null, BlameStartRevision.wholeHistory());
+  }
+
+  @Test
+  public void annotate_once_after_other_errors() throws Exception {
+    BlameConcurrencyLimiter limiter = new BlameConcurrencyLimiter(4);
+    BlameSession session = mock(BlameSession.class);
+    File file = new File("Foo.java");
+    SVNException error = new SVNException(SVNErrorMessage.create(SVNErrorCode.FS_NOT_FOUND));
+    when(session.annotate(file, null, BlameStartRevision.wholeHistory())).thenThrow(error);
+
+    assertThatThrownBy(() -> SvnBlameCommand.annotate(limiter, session, file, null, BlameStartRevision.wholeHistory())).isSameAs(error);
+    assertThat(limiter.limit()).isEqualTo(4);
+    verify(session).annotate(file, null, BlameStartRevision.wholeHistory());
+  }
+
+  @Test
+  public void fail_when_server_overload_persists() throws Exception {
+    BlameConcurrencyLimiter limiter = new BlameConcurrencyLimiter(4);
+    BlameSession session = mock(BlameSession.class);
+    File file = new File("Foo.java");
+    SVNException error = new SVNException(SVNErrorMessage.create(SVNErrorCode.RA_SVN_CONNECTION_CLOSED));
+    when(session.annotate(file, null, BlameStartRevision.wholeHistory())).thenThrow(error);
+
+    assertThatThrownBy(() -> SvnBlameCommand.annotate(limiter, session, file, null, BlameStartRevision.wholeHistory())).isSameAs(error);
+    verify(session, times(2)).annotate(file, null, BlameStartRevision.wholeHistory());
+  }
+
   private static void javaUnzip(File zip, File toDir) {
     try {
       ZipFile zipFile = new ZipFile(zip);
@@ -352,11 +711,18 @@ public class SvnBlameCommandTest {
     }
   }
 
+  private static void deleteRecursively(Path path) throws IOException {
+    try (Stream<Path> paths = Files.walk(path)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
   private static String unixPath(File file) {
     return file.getAbsolutePath().replace('\\', '/');
   }
 
   private SvnBlameCommand newSvnBlameCommand() {
-    return new SvnBlameCommand(mock(SvnConfiguration.class));
+    SvnConfiguration configuration = mock(SvnConfiguration.class);
+    return new SvnBlameCommand(configuration);
   }
 }
@@ -41,6 +41,23 @@ public class SvnConfigurationTest {
 
     assertThat(config.username()).isNull();
     assertThat(config.password()).isNull();
+    assertThat(config.blameThreads()).isEqualTo(1);
+    assertThat(config.blameStartRevision()).isNull();
+    assertThat(config.blameInMemory()).isFalse();
+    assertThat(config.blameFileTimeout()).isZero();
+    assertThat(config.blameTotalTimeout()).isZero();
+    assertThat(config.changedFilesCacheEnabled()).isTrue();
+    assertThat(config.changedFilesStrategy()).isEqualTo(SvnConfiguration.CHANGED_FILES_STRATEGY_AUTO);
+    assertThat(config.changedLinesDiffFiles()).isFalse();
+    assertThat(config.changedLinesThreads()).isEqualTo(4);
+    assertThat(config.changedLinesFileMaxSize()).isEqualTo(10 * 1024L * 1024L);
+    assertThat(config.changedLinesTotalMaxSize()).isEqualTo(500 * 1024L * 1024L);
+
+    settings.setProperty(SvnConfiguration.CHANGED_LINES_DIFF_PROP_KEY, "files");
+    assertThat(config.changedLinesDiffFiles()).isTrue();
+
+    settings.setProperty(SvnConfiguration.BLAME_ENGINE_PROP_KEY, "memory");
+    assertThat(config.blameInMemory()).isTrue();
 
     settings.setProperty(SvnConfiguration.USER_PROP_KEY, "foo");
     assertThat(config.username()).isEqualTo("foo");
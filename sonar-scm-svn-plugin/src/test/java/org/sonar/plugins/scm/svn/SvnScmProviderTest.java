@@ -25,6 +25,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Set;
 import org.junit.Before;
@@ -163,6 +164,8 @@ public class SvnScmProviderTest {
         b1.resolve("sub/file-b1.xoo"),
         b1.resolve("file-m1.xoo"),
         b1.resolve("file-m1-copy.xoo"));
+    assertThat(newScmProvider(strategy(SvnConfiguration.CHANGED_FILES_STRATEGY_LOG)).branchChangedFiles("trunk", b1)).isEqualTo(changedFiles);
+    assertThat(newScmProvider(strategy(SvnConfiguration.CHANGED_FILES_STRATEGY_SUMMARIZE)).branchChangedFiles("trunk", b1)).isEqualTo(changedFiles);
 
     // use a subset of changed files for .branchChangedLines to verify only requested files are returned
     assertThat(changedFiles.remove(b1.resolve("sub/file-b1.xoo"))).isTrue();
@@ -183,11 +186,155 @@ public class SvnScmProviderTest {
           b1.resolve("lao.txt"), ImmutableSet.of(2, 3, 11, 12, 13),
           b1.resolve("file-m1.xoo"), ImmutableSet.of(2, 3, 4),
           b1.resolve("file-m1-copy.xoo"), ImmutableSet.of(1, 2)));
+    assertThat(newScmProvider(strategy(SvnConfiguration.CHANGED_FILES_STRATEGY_SUMMARIZE)).branchChangedLines("trunk", b1, changedFiles))
+      .isEqualTo(newScmProvider().branchChangedLines("trunk", b1, changedFiles));
+    assertThat(newScmProvider(diffFiles()).branchChangedLines("trunk", b1, changedFiles))
+      .isEqualTo(newScmProvider().branchChangedLines("trunk", b1, changedFiles));
 
     assertThat(newScmProvider().branchChangedLines("trunk", b1, Collections.singleton(b1.resolve("nonexistent"))))
       .isEmpty();
   }
 
+  @Test
+  public void branchChangedLines_of_files_only_changed_locally() throws IOException, SVNException {
+    Path trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    createAndCommitFile(trunk, "file-m1.xoo");
+    svnTester.createBranch("b1");
+
+    Path b1 = temp.newFolder().toPath();
+    svnTester.checkout(b1, "branches/b1");
+    Files.createDirectories(b1.resolve("sub"));
+    createAndCommitFile(b1, "sub/file-b1.xoo");
+    svnTester.update(b1);
+    svnTester.appendToFile(b1, "file-m1.xoo");
+
+    Set<Path> changedFiles = ImmutableSet.of(b1.resolve("file-m1.xoo"), b1.resolve("sub/file-b1.xoo"));
+    ImmutableMap<Path, Set<Integer>> expected = ImmutableMap.of(b1.resolve("file-m1.xoo"), ImmutableSet.of(2),
+      b1.resolve("sub/file-b1.xoo"), ImmutableSet.of(1));
+    assertThat(newScmProvider().branchChangedLines("trunk", b1, changedFiles)).isEqualTo(expected);
+    assertThat(newScmProvider(diffFiles()).branchChangedLines("trunk", b1, changedFiles)).isEqualTo(expected);
+  }
+
+  @Test
+  public void branchChangedFiles_from_cache_and_newer_revisions() throws IOException, SVNException {
+    Path cacheDirectory = temp.newFolder().toPath();
+    SvnConfiguration cachingConfig = mock(SvnConfiguration.class);
+    when(cachingConfig.changedFilesCacheEnabled()).thenReturn(true);
+    when(cachingConfig.cacheDirectory()).thenReturn(cacheDirectory);
+
+    Path trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    createAndCommitFile(trunk, "file-m1.xoo");
+    createAndCommitFile(trunk, "file-m2.xoo");
+    svnTester.createBranch("b1");
+
+    Path b1 = temp.newFolder().toPath();
+    svnTester.checkout(b1, "branches/b1");
+    appendToAndCommitFile(b1, "file-m1.xoo");
+    createAndCommitFile(b1, "file-b1.xoo");
+    svnTester.update(b1);
+
+    assertThat(newScmProvider(cachingConfig).branchChangedFiles("trunk", b1))
+      .containsExactlyInAnyOrder(b1.resolve("file-m1.xoo"), b1.resolve("file-b1.xoo"));
+    Path indexFile = cacheDirectory.resolve("changed-paths.bin");
+    String branchUrl = svnTester.url("branches/b1").toString();
+    ChangedPathIndex.Entry first = ChangedPathIndex.load(indexFile).get(branchUrl);
+
+    deleteAndCommitFile(b1, "file-m1.xoo");
+    appendToAndCommitFile(b1, "file-m2.xoo");
+    svnTester.update(b1);
+
+    Set<Path> expected = newScmProvider().branchChangedFiles("trunk", b1);
+    assertThat(expected).containsExactlyInAnyOrder(b1.resolve("file-m2.xoo"), b1.resolve("file-b1.xoo"));
+    assertThat(newScmProvider(cachingConfig).branchChangedFiles("trunk", b1)).isEqualTo(expected);
+    ChangedPathIndex.Entry second = ChangedPathIndex.load(indexFile).get(branchUrl);
+    assertThat(second.revision()).isGreaterThan(first.revision());
+    assertThat(second.copyRevision()).isEqualTo(first.copyRevision());
+
+    // served from the cache, then diffed from the copy point
+    svnTester.appendToFile(b1, "file-b1.xoo");
+    assertThat(newScmProvider(cachingConfig).branchChangedLines("trunk", b1, Collections.singleton(b1.resolve("file-m2.xoo"))))
+      .isEqualTo(ImmutableMap.of(b1.resolve("file-m2.xoo"), ImmutableSet.of(2)));
+  }
+
+  @Test
+  public void branchChangedLines_resolves_copy_point_without_changed_files() throws IOException, SVNException {
+    Path cacheDirectory = temp.newFolder().toPath();
+    SvnConfiguration cachingConfig = mock(SvnConfiguration.class);
+    when(cachingConfig.changedFilesCacheEnabled()).thenReturn(true);
+    when(cachingConfig.cacheDirectory()).thenReturn(cacheDirectory);
+
+    Path trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    createAndCommitFile(trunk, "file-m1.xoo");
+    svnTester.createBranch("b1");
+
+    Path b1 = temp.newFolder().toPath();
+    svnTester.checkout(b1, "branches/b1");
+    appendToAndCommitFile(b1, "file-m1.xoo");
+    svnTester.update(b1);
+    svnTester.appendToFile(b1, "file-m1.xoo");
+
+    assertThat(newScmProvider(cachingConfig).branchChangedLines("trunk", b1, Collections.singleton(b1.resolve("file-m1.xoo"))))
+      .isEqualTo(ImmutableMap.of(b1.resolve("file-m1.xoo"), ImmutableSet.of(2, 3)));
+    // the files changed on the branch are not computed, so not indexed
+    assertThat(ChangedPathIndex.load(cacheDirectory.resolve("changed-paths.bin")).get(svnTester.url("branches/b1").toString())).isNull();
+  }
+
+  @Test
+  public void branchChangedFiles_and_lines_scoped_to_project_directory() throws IOException, SVNException {
+    Path trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    Files.createDirectories(trunk.resolve("project/mod-a"));
+    Files.createDirectories(trunk.resolve("project/mod-b"));
+    Files.createDirectories(trunk.resolve("other"));
+    svnTester.createFile(trunk, "project/mod-a/file-a.xoo", "a\n");
+    svnTester.createFile(trunk, "project/mod-b/file-b.xoo", "b\n");
+    svnTester.createFile(trunk, "other/file-o.xoo", "o\n");
+    svnTester.add(trunk, "project");
+    svnTester.add(trunk, "other");
+    svnTester.commit(trunk);
+    svnTester.createBranch("b1");
+
+    Path b1 = temp.newFolder().toPath();
+    svnTester.checkout(b1, "branches/b1");
+    svnTester.appendToFile(b1, "project/mod-a/file-a.xoo");
+    svnTester.appendToFile(b1, "other/file-o.xoo");
+    svnTester.commit(b1);
+    appendToAndCommitFile(b1, "other/file-o.xoo");
+    svnTester.update(b1);
+
+    Path project = b1.resolve("project");
+    assertThat(newScmProvider().branchChangedFiles("trunk", project)).containsExactly(project.resolve("mod-a/file-a.xoo"));
+    assertThat(newScmProvider(strategy(SvnConfiguration.CHANGED_FILES_STRATEGY_SUMMARIZE)).branchChangedFiles("trunk", project))
+      .containsExactly(project.resolve("mod-a/file-a.xoo"));
+
+    svnTester.appendToFile(b1, "project/mod-b/file-b.xoo");
+    assertThat(newScmProvider().branchChangedLines("trunk", project, Collections.singleton(project.resolve("mod-a/file-a.xoo"))))
+      .isEqualTo(ImmutableMap.of(project.resolve("mod-a/file-a.xoo"), ImmutableSet.of(2)));
+    assertThat(newScmProvider(diffFiles()).branchChangedLines("trunk", project, Collections.singleton(project.resolve("mod-a/file-a.xoo"))))
+      .isEqualTo(ImmutableMap.of(project.resolve("mod-a/file-a.xoo"), ImmutableSet.of(2)));
+  }
+
+  @Test
+  public void diff_directories_of_changed_files() throws IOException {
+    Path root = temp.newFolder().toPath();
+    Files.createDirectories(root.resolve("mod-a/src/main"));
+    Files.createDirectories(root.resolve("mod-a/src/test"));
+    Files.createDirectories(root.resolve("mod-b/src"));
+
+    assertThat(SvnScmProvider.diffDirectories(root, Collections.emptySet())).isEmpty();
+    assertThat(SvnScmProvider.diffDirectories(root, Arrays.asList(
+      root.resolve("mod-a/src/main/A.java"),
+      root.resolve("mod-a/src/test/ATest.java"),
+      root.resolve("mod-b/src/removed/B.java"),
+      temp.getRoot().toPath().resolve("outside/C.java"))))
+      .containsExactlyInAnyOrder(root.resolve("mod-a/src"), root.resolve("mod-b/src"));
+    assertThat(SvnScmProvider.diffDirectories(root, Arrays.asList(root.resolve("mod-a/src/main/A.java"), root.resolve("pom.xml"))))
+      .containsExactly(root);
+  }
+
   @Test
   public void branchChangedFiles_should_return_empty_when_no_local_changes() throws IOException, SVNException {
     Path b1 = temp.newFolder().toPath();
@@ -195,6 +342,8 @@ public class SvnScmProviderTest {
     svnTester.checkout(b1, "branches/b1");
 
     assertThat(newScmProvider().branchChangedFiles("b1", b1)).isEmpty();
+    assertThat(newScmProvider(strategy(SvnConfiguration.CHANGED_FILES_STRATEGY_LOG)).branchChangedFiles("b1", b1)).isEmpty();
+    assertThat(newScmProvider(strategy(SvnConfiguration.CHANGED_FILES_STRATEGY_SUMMARIZE)).branchChangedFiles("b1", b1)).isEmpty();
   }
 
   @Test
@@ -288,7 +437,7 @@ public class SvnScmProviderTest {
     when(svnInfoMock.getRepositoryRootURL()).thenReturn(SVNURL.parseURIEncoded("http://svnserver"));
     when(svnInfoMock.getURL()).thenReturn(SVNURL.parseURIEncoded("http://svnserver/myproject/trunk/"));
 
-    assertThat(SvnScmProvider.computeChangedPaths(Paths.get("/"), svnClientManagerMock)).isEmpty();
+    assertThat(SvnScmProvider.computeChangedPaths(Paths.get("/"), svnClientManagerMock, new RevisionLog(), null, null)).isEmpty();
   }
 
   private void createAndCommitFile(Path worktree, String filename, String content) throws IOException, SVNException {
@@ -317,6 +466,23 @@ public class SvnScmProviderTest {
   }
 
   private SvnScmProvider newScmProvider() {
-    return new SvnScmProvider(config, new SvnBlameCommand(config), findFork);
+    return newScmProvider(config);
+  }
+
+  private static SvnConfiguration strategy(String strategy) {
+    SvnConfiguration configuration = mock(SvnConfiguration.class);
+    when(configuration.changedFilesStrategy()).thenReturn(strategy);
+    return configuration;
+  }
+
+  private static SvnConfiguration diffFiles() {
+    SvnConfiguration configuration = mock(SvnConfiguration.class);
+    when(configuration.changedLinesDiffFiles()).thenReturn(true);
+    when(configuration.changedLinesThreads()).thenReturn(2);
+    return configuration;
+  }
+
+  private SvnScmProvider newScmProvider(SvnConfiguration configuration) {
+    return new SvnScmProvider(configuration, new SvnBlameCommand(configuration), findFork);
   }
 }
@@ -70,6 +70,10 @@ public class SvnTester {
     copyClient.doCopy(new SVNCopySource[] {source}, localRepository.appendPath("branches/" + branchName, false), false, false, true, "Create branch", null);
   }
 
+  public SVNURL url(String path) throws SVNException {
+    return localRepository.appendPath(path, false);
+  }
+
   public void checkout(Path worktree, String path) throws SVNException {
     SVNUpdateClient updateClient = manager.getUpdateClient();
     updateClient.doCheckout(localRepository.appendPath(path, false),
@@ -0,0 +1,66 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TargetedDiffTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void group_existing_files_by_directory() throws IOException {
+    Path root = temp.newFolder().toPath();
+    Path a = Files.createDirectories(root.resolve("a"));
+    Path b = Files.createDirectories(root.resolve("b"));
+    for (String file : Arrays.asList("a/1", "a/2", "a/3", "b/1", "b/2", "b/3", "b/4", "b/5")) {
+      Files.createFile(root.resolve(file));
+    }
+
+    List<TargetedDiff.Batch> batches = TargetedDiff.batches(root, Arrays.asList(
+      root.resolve("a/1"), root.resolve("a/2"),
+      root.resolve("b/1"), root.resolve("b/2"), root.resolve("b/missing"),
+      temp.getRoot().toPath().resolve("outside")));
+
+    assertThat(batches).extracting(TargetedDiff.Batch::directory).containsExactly(a, b);
+    assertThat(batches).extracting(TargetedDiff.Batch::wholeDirectory).containsExactly(true, false);
+  }
+
+  @Test
+  public void diff_single_file_alone() throws IOException {
+    Path root = temp.newFolder().toPath();
+    Files.createFile(root.resolve("1"));
+
+    List<TargetedDiff.Batch> batches = TargetedDiff.batches(root, Arrays.asList(root.resolve("1")));
+
+    assertThat(batches).extracting(TargetedDiff.Batch::wholeDirectory).containsExactly(false);
+    assertThat(TargetedDiff.batches(root, Arrays.asList(root.resolve("missing")))).isEmpty();
+  }
+}
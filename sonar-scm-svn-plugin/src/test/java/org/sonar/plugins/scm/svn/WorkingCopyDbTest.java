@@ -0,0 +1,112 @@
+/*
+ * SonarQube :: Plugins :: SCM :: SVN
+ * Copyright (C) 2014-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.scm.svn;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tmatesoft.svn.core.SVNException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WorkingCopyDbTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private SvnTester svnTester;
+  private Path trunk;
+
+  @Before
+  public void prepare() throws IOException, SVNException {
+    svnTester = new SvnTester(temp.newFolder().toPath());
+    trunk = temp.newFolder().toPath();
+    svnTester.checkout(trunk, "trunk");
+    Files.createDirectories(trunk.resolve("sub"));
+    svnTester.createFile(trunk, "sub/file.txt");
+    svnTester.createFile(trunk, "sub0.txt");
+    svnTester.add(trunk, "sub");
+    svnTester.add(trunk, "sub0.txt");
+    svnTester.commit(trunk);
+  }
+
+  @Test
+  public void read_nodes_of_whole_working_copy() throws SVNException {
+    WorkingCopyDb db = WorkingCopyDb.load(trunk.toFile(), true);
+
+    assertThat(db.nodes()).extracting(WorkingCopyDb.Node::path)
+      .containsOnly(trunk, trunk.resolve("sub"), trunk.resolve("sub/file.txt"), trunk.resolve("sub0.txt"));
+
+    WorkingCopyDb.Node file = db.get(trunk.resolve("sub/file.txt").toFile());
+    assertThat(file.isFile()).isTrue();
+    assertThat(file.isPristine()).isTrue();
+    assertThat(file.hasRecordedSizeAndTimestamp()).isTrue();
+    assertThat(file.revision()).isEqualTo(3);
+    assertThat(file.changedRevision()).isEqualTo(3);
+    assertThat(file.checksum()).startsWith("$sha1$");
+    assertThat(file.repositoryPath()).isEqualTo("trunk/sub/file.txt");
+    assertThat(file.repositoryUuid()).isNotEmpty();
+    assertThat(file.repositoryRoot()).isEqualTo(svnTester.url("").toString());
+
+    WorkingCopyDb.Node dir = db.get(trunk.toFile());
+    assertThat(dir.isFile()).isFalse();
+    assertThat(dir.revision()).isEqualTo(2);
+  }
+
+  @Test
+  public void read_only_descendants_of_directory() {
+    WorkingCopyDb db = WorkingCopyDb.load(trunk.resolve("sub").toFile(), true);
+
+    assertThat(db.nodes()).extracting(WorkingCopyDb.Node::path).containsOnly(trunk.resolve("sub"), trunk.resolve("sub/file.txt"));
+  }
+
+  @Test
+  public void read_single_node() {
+    WorkingCopyDb db = WorkingCopyDb.load(trunk.resolve("sub").toFile(), false);
+    assertThat(db.nodes()).extracting(WorkingCopyDb.Node::path).containsOnly(trunk.resolve("sub"));
+
+    assertThat(WorkingCopyDb.node(trunk.resolve("sub0.txt").toFile()).revision()).isEqualTo(3);
+    assertThat(WorkingCopyDb.node(trunk.resolve("missing.txt").toFile())).isNull();
+  }
+
+  @Test
+  public void detect_local_changes() throws IOException, SVNException {
+    svnTester.appendToFile(trunk, "sub0.txt");
+    svnTester.createFile(trunk, "added.txt");
+    svnTester.add(trunk, "added.txt");
+    svnTester.deleteFile(trunk, "sub/file.txt");
+
+    WorkingCopyDb db = WorkingCopyDb.load(trunk.toFile(), true);
+
+    assertThat(db.get(trunk.resolve("sub0.txt").toFile()).isPristine()).isTrue();
+    assertThat(db.get(trunk.resolve("sub0.txt").toFile()).hasRecordedSizeAndTimestamp()).isFalse();
+    assertThat(db.get(trunk.resolve("added.txt").toFile()).isPristine()).isFalse();
+    assertThat(db.get(trunk.resolve("sub/file.txt").toFile()).isPristine()).isFalse();
+  }
+
+  @Test
+  public void no_database_outside_of_working_copy() throws IOException {
+    assertThat(WorkingCopyDb.load(temp.newFolder(), true)).isNull();
+  }
+}